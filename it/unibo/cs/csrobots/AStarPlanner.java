@@ -0,0 +1,158 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * A* from the target towards the robot, with the Manhattan distance to the
+ * robot as heuristic.
+ * <p>
+ * All moves cost one and the heuristic changes by exactly one per move,
+ * so a cell's <i>f</i> (distance from the target plus heuristic) is either
+ * the same as its parent's or two more. The open list is then just two
+ * stacks: the cells at the current <i>f</i> and those at the next one.
+ * Popping the most recently pushed cell first favours the deepest ones,
+ * which heads straight for the robot on open ground.
+ * <p>
+ * We don't stop as soon as the robot's cell is settled, but once every
+ * cell with the same <i>f</i> is: that way each cell on <i>every</i>
+ * shortest path is settled, and the gradient around the robot looks just
+ * like the one a full fill would give. Only the cells touched by a search
+ * are reset before the next one.
+ */
+public class AStarPlanner implements PathPlanner {
+    private final Terrain terrain;
+    private final int width;
+
+    /** The distances array of the last search, and the cells it touched */
+    private int[] lastDistances = null;
+    private int[] touched;
+    private int nTouched = 0;
+
+    /** Cells closed by the search numbered <code>closedAt[cell]</code> */
+    private final int[] closedAt;
+    private int search = 0;
+
+    /** The open list: cells at the current f, and at f + 2 */
+    private int[] current = new int[256];
+    private int[] next = new int[256];
+    private int nCurrent, nNext;
+
+    public AStarPlanner(Terrain terrain) {
+        this.terrain = terrain;
+        this.width = terrain.getWidth();
+        touched = new int[terrain.getSize()];
+        closedAt = new int[terrain.getSize()];
+    }
+
+    public int plan(int[] distances, int target, int origin) {
+        final int infinity = terrain.getInfinity();
+
+        if (distances != lastDistances) {
+            Arrays.fill(distances, 0, terrain.getSize(), infinity);
+            lastDistances = distances;
+        } else {
+            for (int i = 0; i < nTouched; ++i)
+                distances[touched[i]] = infinity;
+        }
+        nTouched = 0;
+        ++search;
+
+        final int oy = terrain.getY(origin), ox = terrain.getX(origin);
+        final int size = terrain.getSize();
+
+        nCurrent = nNext = 0;
+        distances[target] = 0;
+        touched[nTouched++] = target;
+        push(target, true);
+
+        int f = heuristic(target, oy, ox);
+        boolean found = false;
+
+        while (true) {
+            if (nCurrent == 0) {
+                // Everything at this f is settled; if the robot is, too,
+                // we're done.
+                if (found || nNext == 0)
+                    break;
+                int[] tmp = current;
+                current = next;
+                next = tmp;
+                nCurrent = nNext;
+                nNext = 0;
+                f += 2;
+            }
+
+            int c = current[--nCurrent];
+            if (closedAt[c] == search)
+                continue;
+            closedAt[c] = search;
+            if (c == origin)
+                found = true;
+
+            int g = distances[c] + 1;
+            int x = c % width;
+
+            int n = c + width;
+            if (n < size)
+                relax(distances, n, g, f, oy, ox);
+            n = c - width;
+            if (n >= 0)
+                relax(distances, n, g, f, oy, ox);
+            if (x + 1 < width)
+                relax(distances, c + 1, g, f, oy, ox);
+            if (x > 0)
+                relax(distances, c - 1, g, f, oy, ox);
+        }
+
+        return nTouched;
+    }
+
+    public boolean isSettled(int cell) {
+        return closedAt[cell] == search;
+    }
+
+    private void relax(int[] distances, int n, int g, int f, int oy, int ox) {
+        if (g >= distances[n] || !terrain.isPassable(n))
+            return;
+
+        if (distances[n] == terrain.getInfinity())
+            touched[nTouched++] = n;
+        distances[n] = g;
+        push(n, g + heuristic(n, oy, ox) == f);
+    }
+
+    private int heuristic(int cell, int oy, int ox) {
+        return Math.abs(terrain.getY(cell) - oy) + Math.abs(terrain.getX(cell) - ox);
+    }
+
+    private void push(int cell, boolean now) {
+        if (now) {
+            if (nCurrent == current.length)
+                current = Arrays.copyOf(current, 2 * nCurrent);
+            current[nCurrent++] = cell;
+        } else {
+            if (nNext == next.length)
+                next = Arrays.copyOf(next, 2 * nNext);
+            next[nNext++] = cell;
+        }
+    }
+}
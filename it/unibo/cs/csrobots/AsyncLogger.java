@@ -0,0 +1,320 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A logger that keeps formatting and I/O off the caller's thread.
+ * <p>
+ * Records are checked against the current level first and then stored,
+ * still unformatted, in a fixed size ring buffer. A background thread
+ * drains the buffer, formats the records and writes them out in batches.
+ * When the buffer is full the callers wait for the writer: we'd rather be
+ * slow than lose log lines.
+ * <p>
+ * Three output formats are supported:
+ * <ul>
+ * <li><tt>TEXT</tt>: the good old <tt>[LEVEL] message</tt> lines;
+ * <li><tt>JSON</tt>: one object per line with the time, level and message;
+ * <li><tt>BINARY</tt>: for each record, the time (a long, in milliseconds),
+ *     the level ordinal (a byte) and the message (modified UTF-8), as
+ *     written by <code>DataOutputStream</code>.
+ * </ul>
+ */
+public class AsyncLogger {
+    public enum Format {
+        TEXT,
+        JSON,
+        BINARY
+    }
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    /** How long the writer sleeps when there's nothing to write */
+    private static final long IDLE_PARK_NANOS = 1000000L;
+
+    private static final Charset charset = Charset.forName("UTF-8");
+
+    private static class Record {
+        long time;
+        BaseServer.LogMessageLevel level;
+        String format;
+        Object[] args;
+    }
+
+    private final Record[] ring;
+    private final int mask;
+
+    /**
+     * Per slot sequence numbers: a slot with sequence <tt>n</tt> can be
+     * filled by the producer claiming position <tt>n</tt>, and read by the
+     * writer when its sequence is <tt>n + 1</tt>.
+     */
+    private final AtomicLongArray sequences;
+
+    /** Next position to be claimed by a producer */
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /** Next position to be read by the writer; touched by the writer only */
+    private volatile long head = 0;
+
+    private volatile BaseServer.LogMessageLevel threshold;
+    private volatile boolean closed = false;
+
+    private final Format format;
+    private final OutputStream out;
+    private final DataOutputStream binaryOut;
+    private final Thread writer;
+
+    public AsyncLogger(BaseServer.LogMessageLevel threshold, Format format,
+                       OutputStream out, int capacity)
+    {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+
+        ring = new Record[size];
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            ring[i] = new Record();
+            sequences.set(i, i);
+        }
+
+        this.threshold = threshold;
+        this.format = format;
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        this.binaryOut = new DataOutputStream(this.out);
+
+        writer = new Thread(new Runnable()
+            {
+                public void run() {
+                    drainLoop();
+                }
+            }, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public AsyncLogger(BaseServer.LogMessageLevel threshold, Format format,
+                       OutputStream out)
+    {
+        this(threshold, format, out, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * A logger writing to the standard output.
+     */
+    public AsyncLogger(BaseServer.LogMessageLevel threshold, Format format) {
+        this(threshold, format, new FileOutputStream(FileDescriptor.out));
+    }
+
+    /**
+     * A logger writing to (i.e. truncating) the file at <code>path</code>.
+     */
+    public AsyncLogger(BaseServer.LogMessageLevel threshold, Format format,
+                       String path)
+        throws FileNotFoundException
+    {
+        this(threshold, format, new FileOutputStream(path));
+    }
+
+    /**
+     * Messages less severe than <code>level</code> are discarded. A null
+     * level turns logging off altogether.
+     */
+    public void setThreshold(BaseServer.LogMessageLevel level) {
+        threshold = level;
+    }
+
+    /**
+     * Cheap enough to be called before building the arguments of a message.
+     */
+    public boolean isLoggable(BaseServer.LogMessageLevel level) {
+        BaseServer.LogMessageLevel t = threshold;
+        return t != null && level.ordinal() <= t.ordinal();
+    }
+
+    /**
+     * Queue a message. The arguments are formatted later, on the writer's
+     * thread, so they'd better not change in the meanwhile.
+     */
+    public void log(BaseServer.LogMessageLevel level,
+                    String messageFormat, Object ... args)
+    {
+        if (!isLoggable(level) || closed)
+            return;
+
+        long pos;
+        while (true) {
+            pos = tail.get();
+            long seq = sequences.get((int) pos & mask);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    break;
+            } else if (seq < pos) {
+                // Full: give the writer a chance to catch up.
+                LockSupport.unpark(writer);
+                Thread.yield();
+            }
+        }
+
+        Record r = ring[(int) pos & mask];
+        r.time = System.currentTimeMillis();
+        r.level = level;
+        r.format = messageFormat;
+        r.args = args;
+        sequences.set((int) pos & mask, pos + 1);
+    }
+
+    /**
+     * Waits until everything logged so far has been written out.
+     */
+    public void flush() {
+        long target = tail.get();
+        while (head < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+        synchronized (out) {
+            try {
+                out.flush();
+            } catch (IOException e) { /* nowhere to complain */ }
+        }
+    }
+
+    /**
+     * Flushes pending records and stops the writer.
+     */
+    public void close() {
+        flush();
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) { /* we're leaving anyway */ }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            int written = drain();
+            if (written == 0) {
+                synchronized (out) {
+                    try {
+                        out.flush();
+                    } catch (IOException e) { /* nowhere to complain */ }
+                }
+                if (closed && head == tail.get())
+                    return;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Writes out all the records that are ready.
+     *
+     * @return the number of records written
+     */
+    private int drain() {
+        int count = 0;
+        long pos = head;
+
+        synchronized (out) {
+            while (sequences.get((int) pos & mask) == pos + 1) {
+                Record r = ring[(int) pos & mask];
+                try {
+                    write(r);
+                } catch (IOException e) {
+                    // Nothing sensible to do; drop the record.
+                }
+                r.format = null;
+                r.args = null;
+                sequences.set((int) pos & mask, pos + mask + 1);
+                head = ++pos;
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    private void write(Record r) throws IOException {
+        String message;
+        try {
+            message = String.format(r.format, r.args);
+        } catch (RuntimeException e) {
+            message = r.format;
+        }
+
+        switch (format) {
+        case BINARY:
+            binaryOut.writeLong(r.time);
+            binaryOut.writeByte(r.level.ordinal());
+            binaryOut.writeUTF(message);
+            break;
+
+        case JSON:
+            StringBuilder json = new StringBuilder(message.length() + 64);
+            json.append("{\"time\":").append(r.time)
+                .append(",\"level\":\"").append(r.level.name())
+                .append("\",\"message\":\"");
+            appendEscaped(json, message);
+            json.append("\"}\n");
+            out.write(json.toString().getBytes(charset));
+            break;
+
+        case TEXT:
+        default:
+            out.write(("[" + r.level.name() + "] " + message + "\n").getBytes(charset));
+            break;
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':  sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+                if (c < 0x20)
+                    sb.append(String.format("\\u%04x", (int) c));
+                else
+                    sb.append(c);
+            }
+        }
+    }
+}
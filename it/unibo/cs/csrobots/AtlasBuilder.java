@@ -0,0 +1,203 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+
+/**
+ * Works out a <code>DistanceAtlas</code> for a board ahead of the game:
+ * the maps to the packet destinations listed in its <tt>.items</tt> file
+ * (if there is one) come first, then those to the bases, for as long as
+ * they fit in the given size.
+ * <p>
+ * The maps are filled in one at a time and written out as they come, so
+ * building an atlas doesn't take much more memory than playing does.
+ */
+class AtlasBuilder {
+    private static final int DEFAULT_MAX_MB = 1024;
+
+    /** The cells we want maps for, most wanted first */
+    private static LinkedHashSet<Integer> pickTargets(GameConfig config, Field field,
+                                                      Terrain terrain)
+    {
+        LinkedHashSet<Integer> targets = new LinkedHashSet<Integer>();
+        if (config != null)
+            for (Packet p : config.getPacketMap().keySet())
+                targets.add(terrain.cell(p.getDestination()));
+        for (int c = 0; c < terrain.getSize(); ++c)
+            if (field.getType(terrain.getY(c), terrain.getX(c)) == Field.CellType.BASE)
+                targets.add(c);
+
+        // Nobody goes anywhere from where they can't stand
+        LinkedHashSet<Integer> passable = new LinkedHashSet<Integer>();
+        for (int c : targets)
+            if (terrain.isPassable(c))
+                passable.add(c);
+        return passable;
+    }
+
+    /**
+     * Builds the atlas for <code>board</code> in <code>dir</code>.
+     *
+     * @return the file written
+     */
+    private static File build(String board, File dir, long maxBytes)
+        throws IOException, InvalidBoardException
+    {
+        // With an .items file, the board is read along with it
+        GameConfig config = null;
+        Field field;
+        if (new File(board + ".items").isFile()) {
+            config = new GameConfig(board);
+            field = config.getField();
+        } else {
+            field = GameConfig.loadField(board);
+        }
+        Terrain terrain = new Terrain(field);
+        int size = terrain.getSize();
+        int infinity = terrain.getInfinity();
+
+        long mapBytes = 2L * size;
+        int room = (int) Math.min(Integer.MAX_VALUE / 4,
+                                  Math.max(0, (maxBytes - 32) / (mapBytes + 4)));
+        int[] targets = new int[room];
+        int count = 0;
+        for (int c : pickTargets(config, field, terrain)) {
+            if (count == room)
+                break;
+            targets[count++] = c;
+        }
+        targets = Arrays.copyOf(targets, count);
+        Arrays.sort(targets);
+
+        // The maps go to a scratch file first, since those that don't fit
+        // in two bytes a cell are left out, and the header lists the rest.
+        File file = new File(dir, DistanceAtlas.fileName(terrain));
+        File maps = new File(dir, file.getName() + ".tmp");
+        DistanceEngine engine = new BfsDistanceEngine(terrain);
+        int[] distances = new int[size];
+        int[] kept = new int[count];
+        int nKept = 0;
+
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(maps), 1 << 16));
+        try {
+            char[] map = new char[size];
+            for (int target : targets) {
+                engine.computeDistances(distances, target);
+                boolean fits = true;
+                for (int c = 0; c < size && fits; ++c) {
+                    int d = distances[c];
+                    if (d == infinity)
+                        map[c] = DistanceAtlas.UNREACHABLE;
+                    else if (d < DistanceAtlas.UNREACHABLE)
+                        map[c] = (char) d;
+                    else
+                        fits = false;
+                }
+                if (!fits)
+                    continue;
+                for (int c = 0; c < size; ++c)
+                    out.writeChar(map[c]);
+                kept[nKept++] = target;
+            }
+        } finally {
+            out.close();
+        }
+
+        FileOutputStream atlas = new FileOutputStream(file);
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(atlas, 1 << 16));
+            out.writeLong(DistanceAtlas.MAGIC);
+            out.writeInt(DistanceAtlas.VERSION);
+            out.writeLong(terrain.getHash());
+            out.writeInt(terrain.getWidth());
+            out.writeInt(terrain.getHeight());
+            out.writeInt(nKept);
+            for (int i = 0; i < nKept; ++i)
+                out.writeInt(kept[i]);
+            out.flush();
+
+            FileInputStream in = new FileInputStream(maps);
+            try {
+                FileChannel from = in.getChannel();
+                long at = 0, total = from.size();
+                while (at < total)
+                    at += from.transferTo(at, total - at, atlas.getChannel());
+            } finally {
+                in.close();
+            }
+        } finally {
+            atlas.close();
+        }
+        maps.delete();
+
+        System.out.printf("%s: %d maps (%d MB) in %s\n", board, nKept,
+                          (file.length() + (1 << 19)) >> 20, file.getPath());
+        return file;
+    }
+
+    private static void printUsageAndQuit() {
+        System.err.println("usage: java it.unibo.cs.csrobots.AtlasBuilder [-out DIR] "
+                           + "[-max-mb N] board...");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) {
+        File dir = new File(".");
+        long maxMb = DEFAULT_MAX_MB;
+        LinkedList<String> boards = new LinkedList<String>();
+
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-out") && i + 1 < args.length)
+                dir = new File(args[++i]);
+            else if (args[i].equals("-max-mb") && i + 1 < args.length)
+                maxMb = Long.parseLong(args[++i]);
+            else
+                boards.add(args[i]);
+        }
+
+        if (boards.isEmpty() || maxMb < 0)
+            printUsageAndQuit();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.printf("error: cannot create `%s'\n", dir.getPath());
+            System.exit(1);
+        }
+
+        for (String board : boards) {
+            try {
+                long start = System.nanoTime();
+                build(board, dir, maxMb << 20);
+                System.out.printf("\tbuilt in %.1f s\n", (System.nanoTime() - start) / 1e9);
+            } catch (Exception e) {
+                System.err.printf("error: %s: %s\n", board, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+/**
+ * Takes the maps it can from a <code>DistanceAtlas</code>, and leaves the
+ * rest to another planner. Only meant for planners that fill in whole
+ * maps, as the atlas does: every cell is then settled, whichever of the
+ * two the map came from.
+ */
+public class AtlasPlanner implements PathPlanner {
+    private final DistanceAtlas atlas;
+    private final PathPlanner planner;
+
+    /**
+     * @param planner the planner to fall back on; must fill in whole maps
+     */
+    public AtlasPlanner(DistanceAtlas atlas, PathPlanner planner) {
+        this.atlas = atlas;
+        this.planner = planner;
+    }
+
+    public int plan(int[] distances, int target, int origin) {
+        if (atlas.get(target, distances))
+            return 0;
+        return planner.plan(distances, target, origin);
+    }
+
+    public boolean isSettled(int cell) {
+        return true;
+    }
+}
@@ -129,6 +129,7 @@ public abstract class BasePlayer implements UpdateHandler {
         Command cmd = issueCommand();
         System.out.printf("sending command: %s\n", cmd.toString());
         sendLine(cmd.toString());
+        commandSent(cmd);
     }
 
     public void play() {
@@ -197,4 +198,11 @@ public abstract class BasePlayer implements UpdateHandler {
     protected abstract void parseField(List<String> rows, int width, int height)
         throws InvalidBoardException;
     protected abstract void handlePacketsNotify(LinkedList<Packet> packets);
+
+    /**
+     * Called once <code>cmd</code> is on its way, while the server works
+     * out what comes of it. Does nothing by default.
+     */
+    protected void commandSent(Command cmd) {
+    }
 }
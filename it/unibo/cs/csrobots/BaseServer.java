@@ -21,8 +21,10 @@ package it.unibo.cs.csrobots;
 
 import java.util.LinkedList;
 import java.util.LinkedHashMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Map;
 
 import java.util.regex.*;
 import java.util.Scanner;
@@ -51,6 +53,14 @@ public abstract class BaseServer
         private Stub stub;
         private boolean alive = true;
 
+        /** When we sent the last packet list, for measuring think time */
+        private long packetListSentAt = 0;
+
+        // Traffic accounting, for the metrics
+        private long bytesIn = 0;
+        private long bytesOut = 0;
+        private long parseFailures = 0;
+
         public Client(Robot r) {
             robot = r;
         }
@@ -84,6 +94,16 @@ public abstract class BaseServer
         }
 
         public int getScore() { return score; }
+
+        public long getPacketListSentAt() { return packetListSentAt; }
+
+        public void setPacketListSentAt(long nanos) { packetListSentAt = nanos; }
+
+        public long getBytesIn() { return bytesIn; }
+
+        public long getBytesOut() { return bytesOut; }
+
+        public long getParseFailures() { return parseFailures; }
     }
 
     /** Players and debuggers */
@@ -93,11 +113,30 @@ public abstract class BaseServer
     /** Number of turns since the beginning of time */
     private int turnCount = 0;
 
+    /** Turn phases and player think time latencies */
+    private TurnStats turnStats = new TurnStats();
+
+    /**
+     * The last published picture of the game, for anyone watching from
+     * another thread. Null unless metrics are enabled.
+     */
+    private volatile MetricsSnapshot metricsSnapshot = null;
+    private boolean metricsEnabled = false;
+    private long lastSnapshotAt = 0;
+
+    /** Don't bother publishing snapshots more often than this */
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 100;
+
     private static void sendLine(Stub stub, String line) {
         stub.getWriter().print(line + "\n");
         stub.getWriter().flush();
     }
 
+    private static void sendLine(Client client, String line) {
+        sendLine(client.getStub(), line);
+        client.bytesOut += line.length() + 1;
+    }
+
     private static String recvLine(Stub stub) throws IOException {
         String str;
         if ((str = stub.getReader().readLine()) == null)
@@ -163,10 +202,15 @@ public abstract class BaseServer
 
             // Try to read a command from the player; we don't have a sensible
             // policy for dealing with invalid commands -- we just keep trying :-)
+            FlightEvents.CommandReceivedEvent event = new FlightEvents.CommandReceivedEvent();
+            event.begin();
+            int failures = 0;
+
             Command command;
             while (true) {
-                logMessage(LogMessageLevel.INFO,
-                           "awaiting command from player %d", p.getId());
+                if (isLoggable(LogMessageLevel.INFO))
+                    logMessage(LogMessageLevel.INFO,
+                               "awaiting command from player %d", p.getId());
 
                 String str;
                 try {
@@ -180,15 +224,29 @@ public abstract class BaseServer
                     throw e;
                 }
 
-                if ((command = parseCommand(p.getId(), str)) != null)
+                p.bytesIn += str.length() + 1;
+
+                if ((command = parseCommand(p.getId(), str)) != null) {
+                    turnStats.recordThinkTime(p.getId(),
+                                              System.nanoTime() - p.getPacketListSentAt());
                     break;
+                }
 
+                p.parseFailures++;
+                failures++;
                 logMessage(LogMessageLevel.WARNING,
                            "could not make sense of \"%s\"; " +
                            "the player should probably recheck its sanity!",
                            str);
             }
             commands.add(command);
+
+            if (event.shouldCommit()) {
+                event.player = p.getId();
+                event.command = command.toString();
+                event.parseFailures = failures;
+                event.commit();
+            }
         }
 
         return commands;
@@ -198,8 +256,12 @@ public abstract class BaseServer
      * Notify each player with the list of updates for the turn.
      */
     private void sendUpdates(LinkedList<Update> updates) {
-        logMessage(LogMessageLevel.INFO,
-                   "sending updates to all players");
+        if (isLoggable(LogMessageLevel.INFO))
+            logMessage(LogMessageLevel.INFO,
+                       "sending updates to all players");
+
+        FlightEvents.UpdateBroadcastEvent event = new FlightEvents.UpdateBroadcastEvent();
+        event.begin();
 
         String updateStr = "[";
         if (updates != null) {
@@ -212,10 +274,17 @@ public abstract class BaseServer
         updateStr += "]";
 
         for (Client c : clients.values())
-            sendLine(c.getStub(), updateStr);
+            sendLine(c, updateStr);
 
         for (Stub debugger : debuggers)
             sendLine(debugger, updateStr);
+
+        if (event.shouldCommit()) {
+            event.updates = (updates != null) ? updates.size() : 0;
+            event.recipients = clients.size() + debuggers.size();
+            event.length = updateStr.length();
+            event.commit();
+        }
     }
 
     /**
@@ -224,23 +293,8 @@ public abstract class BaseServer
     private void sendPacketList() {
         for (Client c : clients.values()) {
             if (!c.isAlive()) continue;
-            String packetStr = "[";
-            Packet[] packets = getPacketListForPlayer(c);
-            if (packets != null) {
-                boolean first = true;
-                for (Packet p : packets) {
-                    if (!first)
-                        packetStr += ";";
-                    packetStr += String.format("%d,%d,%d,%d",
-                                               p.getId(),
-                                               p.getDestination().getY(),
-                                               p.getDestination().getX(),
-                                               p.getWeight());
-                    first = false;
-                }
-            }
-            packetStr += "]";
-            sendLine(c.getStub(), packetStr);
+            sendLine(c, getPacketListForPlayer(c));
+            c.setPacketListSentAt(System.nanoTime());
         }
     }
 
@@ -260,7 +314,7 @@ public abstract class BaseServer
                                           r.getId(),
                                           r.getStrength(),
                                           r.getMoney());
-            sendLine(c.getStub(), config);
+            sendLine(c, config);
             if (!first)
                 bundle += ";";
             first = false;
@@ -278,8 +332,9 @@ public abstract class BaseServer
         String dimen = String.format("%d %d", field.getWidth(), field.getHeight());
 
         for (Client client : clients.values()) {
-            sendLine(client.getStub(), dimen);
+            sendLine(client, dimen);
             field.print(client.getStub().getWriter());
+            client.bytesOut += (field.getWidth() + 1) * field.getHeight();
         }
 
         for (Stub debugger : debuggers) {
@@ -303,6 +358,9 @@ public abstract class BaseServer
             sendUpdates(createFirstUpdate());
             while (isThereLife())
                 doTurn();
+            if (metricsEnabled)
+                publishMetricsSnapshot(true);
+            flushLog();
             printRankings();
         }  catch (Exception e) { 
             logMessage(LogMessageLevel.ERROR,
@@ -336,14 +394,105 @@ public abstract class BaseServer
     }
 
     private void doTurn() throws Exception {
-        logMessage(LogMessageLevel.INFO,
-                   "starting turn %d", turnCount++);
+        FlightEvents.TurnEvent event = new FlightEvents.TurnEvent();
+        event.begin();
+
+        if (isLoggable(LogMessageLevel.INFO))
+            logMessage(LogMessageLevel.INFO,
+                       "starting turn %d", turnCount);
+        turnCount++;
+
+        long start = System.nanoTime(), t0 = start, t1;
+
         handleTurnStart();
+        t1 = System.nanoTime();
+        turnStats.recordPhase(TurnStats.Phase.TURN_START, t1 - t0);
+
         waitStep();
+        t0 = t1; t1 = System.nanoTime();
+        turnStats.recordPhase(TurnStats.Phase.WAIT_STEP, t1 - t0);
+
         sendPacketList();
+        t0 = t1; t1 = System.nanoTime();
+        turnStats.recordPhase(TurnStats.Phase.SEND_PACKET_LIST, t1 - t0);
+
         LinkedList<Command> commandList = recvCommands();
+        t0 = t1; t1 = System.nanoTime();
+        turnStats.recordPhase(TurnStats.Phase.RECV_COMMANDS, t1 - t0);
+
         LinkedList<Update> updates = handleCommands(commandList);
+        t0 = t1; t1 = System.nanoTime();
+        turnStats.recordPhase(TurnStats.Phase.HANDLE_COMMANDS, t1 - t0);
+
         sendUpdates(updates);
+        t0 = t1; t1 = System.nanoTime();
+        turnStats.recordPhase(TurnStats.Phase.SEND_UPDATES, t1 - t0);
+
+        turnStats.recordPhase(TurnStats.Phase.TURN, t1 - start);
+
+        if (event.shouldCommit()) {
+            event.turn = turnCount - 1;
+            int alive = 0;
+            for (Client c : clients.values())
+                if (c.isAlive())
+                    alive++;
+            event.livePlayers = alive;
+            event.commit();
+        }
+
+        if (metricsEnabled &&
+            System.currentTimeMillis() - lastSnapshotAt >= SNAPSHOT_INTERVAL_MILLIS)
+            publishMetricsSnapshot(false);
+    }
+
+    private void publishMetricsSnapshot(boolean gameOver) {
+        ArrayList<MetricsSnapshot.ClientMetrics> clientMetrics =
+            new ArrayList<MetricsSnapshot.ClientMetrics>(clients.size());
+        for (Client c : clients.values())
+            clientMetrics.add(new MetricsSnapshot.ClientMetrics(c.getId(), c.isAlive(),
+                                                                c.getScore(),
+                                                                c.getBytesIn(),
+                                                                c.getBytesOut(),
+                                                                c.getParseFailures()));
+
+        ArrayList<MetricsSnapshot.PhaseMetrics> phaseMetrics =
+            new ArrayList<MetricsSnapshot.PhaseMetrics>();
+        for (TurnStats.Phase p : TurnStats.Phase.values())
+            phaseMetrics.add(new MetricsSnapshot.PhaseMetrics(p.name().toLowerCase(),
+                                                              turnStats.getPhaseHistogram(p)));
+        for (Map.Entry<Integer, LatencyHistogram> e :
+                 turnStats.getThinkTimeHistograms().entrySet())
+            phaseMetrics.add(new MetricsSnapshot.PhaseMetrics("think_robot_" + e.getKey(),
+                                                              e.getValue()));
+
+        lastSnapshotAt = System.currentTimeMillis();
+        metricsSnapshot = new MetricsSnapshot(turnCount, lastSnapshotAt, gameOver,
+                                              getPacketsRemaining(),
+                                              clientMetrics, phaseMetrics);
+    }
+
+    /**
+     * Start publishing snapshots of the game (a few times per second at
+     * most) for <code>getMetricsSnapshot()</code>.
+     */
+    protected void enableMetrics() {
+        metricsEnabled = true;
+    }
+
+    /**
+     * @return the latest published snapshot, or null if there's none yet.
+     * Safe to call from any thread.
+     */
+    public MetricsSnapshot getMetricsSnapshot() {
+        return metricsSnapshot;
+    }
+
+    /**
+     * @return the latency statistics collected so far. Meant to be looked at
+     * from the server thread, or after the game is over.
+     */
+    public TurnStats getTurnStats() {
+        return turnStats;
     }
 
     /**
@@ -413,6 +562,8 @@ public abstract class BaseServer
 
         for (Client c : sorted)
             System.out.printf("\t#%d\t%d\n", c.getId(), c.getScore());
+
+        turnStats.print(System.out);
     }
 
     //// Abstract methods
@@ -428,9 +579,10 @@ public abstract class BaseServer
     protected abstract void handleTurnStart();
 
     /**
-     * @return the list of packets the player should be notified about.
+     * @return the (already encoded) list of packets the player should be
+     * notified about.
      */
-    protected abstract Packet[] getPacketListForPlayer(Client client);
+    protected abstract String getPacketListForPlayer(Client client);
 
     /**
      * Log a message somewhere.
@@ -438,7 +590,23 @@ public abstract class BaseServer
     protected abstract void logMessage(LogMessageLevel level, 
                                        String messageFormat, Object ... args);
 
+    /**
+     * Tells whether messages of the given level would actually make it to
+     * the log. Used to spare building the arguments of per-turn messages.
+     */
+    protected abstract boolean isLoggable(LogMessageLevel level);
+
+    /**
+     * Waits until all the messages logged so far have been written out.
+     */
+    protected abstract void flushLog();
+
     protected abstract Field getField();
 
+    /**
+     * @return the number of packets that have not been delivered yet.
+     */
+    protected abstract int getPacketsRemaining();
+
     protected abstract void handleFatalError();
 }
@@ -0,0 +1,81 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * The plain breadth first "gradient fill", over flat arrays.
+ * <p>
+ * Every cell enters the queue at most once, so an <code>int[]</code> the
+ * size of the board is all the queue we need; it is allocated once and
+ * reused from there on. Nothing is allocated per visited cell.
+ */
+public class BfsDistanceEngine implements DistanceEngine {
+    private final Terrain terrain;
+    private final int[] queue;
+
+    public BfsDistanceEngine(Terrain terrain) {
+        this.terrain = terrain;
+        this.queue = new int[terrain.getSize()];
+    }
+
+    public int computeDistances(int[] distances, int origin) {
+        final int width = terrain.getWidth();
+        final int size = terrain.getSize();
+        final int infinity = terrain.getInfinity();
+
+        Arrays.fill(distances, 0, size, infinity);
+
+        int head = 0, tail = 0;
+        queue[tail++] = origin;
+        distances[origin] = 0;
+
+        while (head < tail) {
+            int c = queue[head++];
+            int next = distances[c] + 1;
+            int x = c % width;
+
+            // south, north, east, west
+            int n = c + width;
+            if (n < size && distances[n] == infinity && terrain.isPassable(n)) {
+                distances[n] = next;
+                queue[tail++] = n;
+            }
+            n = c - width;
+            if (n >= 0 && distances[n] == infinity && terrain.isPassable(n)) {
+                distances[n] = next;
+                queue[tail++] = n;
+            }
+            n = c + 1;
+            if (x + 1 < width && distances[n] == infinity && terrain.isPassable(n)) {
+                distances[n] = next;
+                queue[tail++] = n;
+            }
+            n = c - 1;
+            if (x > 0 && distances[n] == infinity && terrain.isPassable(n)) {
+                distances[n] = next;
+                queue[tail++] = n;
+            }
+        }
+
+        return tail;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * A flood fill that expands the frontier 64 cells at a time.
+ * <p>
+ * Each board row is stored as a run of <code>long</code> words, one bit per
+ * cell. Going from one distance to the next is a matter of shifting the
+ * frontier words left, right, up and down, and masking the result with the
+ * passable cells not visited yet. Only the words holding some frontier (and
+ * their neighbours) are looked at, so the work per level follows the size
+ * of the frontier, not the size of the board.
+ * <p>
+ * When all we need to know is <i>whether</i> a cell can be reached (as
+ * opposed to how far it is), we don't need to go one level at a time:
+ * <code>computeReachable</code> sweeps the board top to bottom and back,
+ * spilling the reached cells of each row into the next one and filling
+ * each row's passable runs a word at a time, until nothing changes. On
+ * mostly open boards a couple of sweeps are enough.
+ */
+public class BitboardDistanceEngine implements DistanceEngine {
+    private final Terrain terrain;
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+
+    /** Mask of the valid bits in the last word of each row */
+    private final long lastWordMask;
+
+    private final long[] passable;
+    private final long[] visited;
+    private final long[] frontier;
+    private final long[] next;
+
+    /** Indices of the frontier words, and of the next frontier's */
+    private int[] active;
+    private int[] nextActive;
+
+    /** Level at which each word was last queued as a candidate */
+    private final int[] queuedAt;
+    private int[] candidates;
+
+    public BitboardDistanceEngine(Terrain terrain) {
+        this.terrain = terrain;
+        width = terrain.getWidth();
+        height = terrain.getHeight();
+        wordsPerRow = (width + 63) >>> 6;
+        lastWordMask = (width % 64 == 0) ? -1L : (1L << (width % 64)) - 1;
+
+        int words = wordsPerRow * height;
+        passable = new long[words];
+        visited = new long[words];
+        frontier = new long[words];
+        next = new long[words];
+        active = new int[words];
+        nextActive = new int[words];
+        queuedAt = new int[words];
+        candidates = new int[words];
+
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x)
+                if (terrain.isPassable(terrain.cell(y, x)))
+                    passable[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+    }
+
+    /**
+     * @return the number of longs needed for a reachability bitmap
+     */
+    public int getMaskLength() {
+        return wordsPerRow * height;
+    }
+
+    /**
+     * Tells whether <code>cell</code> is set in a bitmap filled in by
+     * <code>computeReachable</code>.
+     */
+    public boolean isSet(long[] mask, int cell) {
+        int y = cell / width, x = cell % width;
+        return (mask[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    public int computeDistances(int[] distances, int origin) {
+        Arrays.fill(distances, 0, terrain.getSize(), terrain.getInfinity());
+        return flood(origin, distances);
+    }
+
+    /**
+     * Sets, in <code>mask</code>, the bits of the cells that can be reached
+     * from <code>origin</code>. The mask must be at least
+     * <code>getMaskLength()</code> longs.
+     *
+     * @return the number of cells that were reached
+     */
+    public int computeReachable(long[] mask, int origin) {
+        Arrays.fill(visited, 0);
+
+        int oy = origin / width, ox = origin % width;
+        visited[oy * wordsPerRow + (ox >>> 6)] = (1L << ox) & passable[oy * wordsPerRow + (ox >>> 6)];
+        boolean changed = fillRow(oy);
+
+        while (changed) {
+            changed = false;
+            for (int y = 1; y < height; ++y)
+                if (spill(y - 1, y))
+                    changed |= fillRow(y);
+            for (int y = height - 2; y >= 0; --y)
+                if (spill(y + 1, y))
+                    changed |= fillRow(y);
+        }
+
+        int reached = 0;
+        for (int w = 0; w < visited.length; ++w)
+            reached += Long.bitCount(visited[w]);
+
+        System.arraycopy(visited, 0, mask, 0, visited.length);
+        return reached;
+    }
+
+    /**
+     * Let the reached cells of row <code>from</code> into the adjacent row
+     * <code>to</code>.
+     *
+     * @return true if some new cell was reached
+     */
+    private boolean spill(int from, int to) {
+        boolean changed = false;
+        int f = from * wordsPerRow, t = to * wordsPerRow;
+        for (int k = 0; k < wordsPerRow; ++k) {
+            long fresh = visited[f + k] & passable[t + k] & ~visited[t + k];
+            if (fresh != 0) {
+                visited[t + k] |= fresh;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Extends the reached cells of row <code>y</code> to the whole passable
+     * runs they lie in: once eastwards, carrying across words, and once
+     * westwards.
+     *
+     * @return true if the row has some reached cell
+     */
+    private boolean fillRow(int y) {
+        int base = y * wordsPerRow;
+        long any = 0;
+
+        long carry = 0;
+        for (int k = 0; k < wordsPerRow; ++k) {
+            long pass = passable[base + k];
+            long g = fillEast(visited[base + k] | (carry & pass), pass);
+            visited[base + k] = g;
+            carry = g >>> 63;
+        }
+
+        carry = 0;
+        for (int k = wordsPerRow - 1; k >= 0; --k) {
+            long pass = passable[base + k];
+            long g = fillWest(visited[base + k] | ((carry << 63) & pass), pass);
+            visited[base + k] = g;
+            carry = g & 1;
+            any |= g;
+        }
+
+        return any != 0;
+    }
+
+    /**
+     * Kogge-Stone occluded fill towards the higher bits: grows
+     * <code>gen</code> through the set bits of <code>pro</code>.
+     */
+    private static long fillEast(long gen, long pro) {
+        gen |= pro & (gen << 1);
+        pro &= pro << 1;
+        gen |= pro & (gen << 2);
+        pro &= pro << 2;
+        gen |= pro & (gen << 4);
+        pro &= pro << 4;
+        gen |= pro & (gen << 8);
+        pro &= pro << 8;
+        gen |= pro & (gen << 16);
+        pro &= pro << 16;
+        gen |= pro & (gen << 32);
+        return gen;
+    }
+
+    /**
+     * As above, towards the lower bits.
+     */
+    private static long fillWest(long gen, long pro) {
+        gen |= pro & (gen >>> 1);
+        pro &= pro >>> 1;
+        gen |= pro & (gen >>> 2);
+        pro &= pro >>> 2;
+        gen |= pro & (gen >>> 4);
+        pro &= pro >>> 4;
+        gen |= pro & (gen >>> 8);
+        pro &= pro >>> 8;
+        gen |= pro & (gen >>> 16);
+        pro &= pro >>> 16;
+        gen |= pro & (gen >>> 32);
+        return gen;
+    }
+
+    private int flood(int origin, int[] distances) {
+        Arrays.fill(visited, 0);
+        Arrays.fill(queuedAt, -1);
+
+        int oy = origin / width, ox = origin % width;
+        int ow = oy * wordsPerRow + (ox >>> 6);
+        frontier[ow] = 1L << ox;
+        visited[ow] = 1L << ox;
+        active[0] = ow;
+        int nActive = 1;
+        int reached = 1;
+
+        distances[origin] = 0;
+
+        for (int level = 1; nActive > 0; ++level) {
+            // Each frontier word may spread to itself and to the words to
+            // its left, right, top and bottom.
+            int nCandidates = 0;
+            for (int i = 0; i < nActive; ++i) {
+                int w = active[i];
+                int col = w % wordsPerRow;
+
+                nCandidates = queue(w, level, nCandidates);
+                if (col > 0)
+                    nCandidates = queue(w - 1, level, nCandidates);
+                if (col < wordsPerRow - 1)
+                    nCandidates = queue(w + 1, level, nCandidates);
+                if (w >= wordsPerRow)
+                    nCandidates = queue(w - wordsPerRow, level, nCandidates);
+                if (w + wordsPerRow < passable.length)
+                    nCandidates = queue(w + wordsPerRow, level, nCandidates);
+            }
+
+            int nNext = 0;
+            for (int i = 0; i < nCandidates; ++i) {
+                int w = candidates[i];
+                int col = w % wordsPerRow;
+
+                long f = frontier[w];
+                long spread = (f << 1) | (f >>> 1);
+                if (col > 0)
+                    spread |= frontier[w - 1] >>> 63;
+                if (col < wordsPerRow - 1)
+                    spread |= frontier[w + 1] << 63;
+                if (w >= wordsPerRow)
+                    spread |= frontier[w - wordsPerRow];
+                if (w + wordsPerRow < passable.length)
+                    spread |= frontier[w + wordsPerRow];
+                if (col == wordsPerRow - 1)
+                    spread &= lastWordMask;
+
+                long fresh = spread & passable[w] & ~visited[w];
+                if (fresh != 0) {
+                    next[w] = fresh;
+                    nextActive[nNext++] = w;
+                }
+            }
+
+            // Only now we can retire the old frontier...
+            for (int i = 0; i < nActive; ++i)
+                frontier[active[i]] = 0;
+
+            // ...and promote the new one.
+            for (int i = 0; i < nNext; ++i) {
+                int w = nextActive[i];
+                long fresh = next[w];
+                next[w] = 0;
+                frontier[w] = fresh;
+                visited[w] |= fresh;
+                reached += Long.bitCount(fresh);
+
+                int base = (w / wordsPerRow) * width + (w % wordsPerRow) * 64;
+                while (fresh != 0) {
+                    distances[base + Long.numberOfTrailingZeros(fresh)] = level;
+                    fresh &= fresh - 1;
+                }
+            }
+
+            int[] tmp = active;
+            active = nextActive;
+            nextActive = tmp;
+            nActive = nNext;
+        }
+
+        // The frontier is all zeroes again by now.
+        return reached;
+    }
+
+    private int queue(int word, int level, int nCandidates) {
+        if (queuedAt[word] != level) {
+            queuedAt[word] = level;
+            candidates[nCandidates++] = word;
+        }
+        return nCandidates;
+    }
+}
@@ -0,0 +1,518 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * A hierarchical (HPA*) abstraction of the board, for guessing distances on
+ * big boards without filling in the whole of them.
+ * <p>
+ * The board is split in square clusters. Wherever two neighbouring
+ * clusters touch through a run of passable cells, the run gets an
+ * <i>entrance</i>: a pair of facing cells (one each side) in its middle, or
+ * at both ends if the run is long. The entrance cells are the nodes of the
+ * abstract graph. The distances between the nodes of a cluster are kept in
+ * a small table, one byte each (a cluster is small enough that no path
+ * inside it gets to 255); facing cells of neighbouring clusters are one
+ * move apart.
+ * <p>
+ * <code>search</code> runs Dijkstra over the nodes from a cell; from then
+ * on <code>approximateDistance</code> tells how far any cell is, going
+ * through the entrances, by filling in the cell's cluster from its nodes.
+ * The answer is never less than the real distance, and usually a few
+ * percent more. The abstraction takes a few bytes per node, against the
+ * four per cell of a full distance map.
+ * <p>
+ * When part of the terrain changes, <code>invalidate</code> the changed
+ * cells and <code>rebuild</code>: only the clusters involved (and their
+ * neighbours, with which they share the entrances) are redone.
+ */
+public class ClusterGraph {
+    /** Runs at least this long get an entrance at each end */
+    private static final int LONG_RUN = 6;
+
+    /** In the byte tables: can't get there from within the cluster */
+    private static final int UNREACHABLE = 255;
+
+    private Terrain terrain;
+    private final int width, height;
+    private final int size;
+    private final int clusterCols, clusterRows;
+
+    /** For each cluster: the cells of its nodes... */
+    private final int[][] nodeCells;
+    /** ...and the distances between them, n by n */
+    private final byte[][] intraDists;
+
+    /** Where each cluster's nodes start in the global numbering */
+    private final int[] firstNode;
+    private int nodeCount;
+    /** For each node: its cluster, and the nodes facing it (or -1) */
+    private int[] nodeCluster;
+    private int[] across;
+
+    private final boolean[] dirty;
+    private boolean anyDirty = false;
+
+    /** Scratch buffers for the per cluster fills */
+    private final int[] queue;
+    private final int[] fill;
+
+    /** Results of the last search */
+    private int origin = -1;
+    private int[] nodeDists = new int[0];
+    private final int[] originFill;
+
+    /**
+     * The cells' distances, for the clusters we were last asked about. A
+     * cluster can only be in slot <code>k % slots</code>; there are enough
+     * slots for two rows of clusters, so going through the board row by
+     * row fills in each cluster once.
+     */
+    private final int[][] fillSlots;
+    private final int[] slotCluster;
+    private int[] clusterFill;
+
+    /**
+     * The search queue. No edge is 256 moves or longer, so a ring of 256
+     * buckets (each a linked list of entries) can hold all the distances
+     * pending at any time.
+     */
+    private final int[] bucketHead = new int[UNREACHABLE + 1];
+    private int[] entryNode = new int[256];
+    private int[] entryNext = new int[256];
+    private int nEntries;
+
+    /** The cluster fill queue: (distance, cell) entries */
+    private final LongHeap heap = new LongHeap(64);
+
+    public ClusterGraph(Terrain terrain, int clusterSize) {
+        if (clusterSize < 2 || clusterSize * clusterSize >= UNREACHABLE)
+            throw new IllegalArgumentException("bad cluster size: " + clusterSize);
+
+        this.terrain = terrain;
+        this.width = terrain.getWidth();
+        this.height = terrain.getHeight();
+        this.size = clusterSize;
+        clusterCols = (width + size - 1) / size;
+        clusterRows = (height + size - 1) / size;
+
+        int clusters = clusterCols * clusterRows;
+        nodeCells = new int[clusters][];
+        intraDists = new byte[clusters][];
+        firstNode = new int[clusters];
+        dirty = new boolean[clusters];
+        queue = new int[size * size];
+        fill = new int[size * size];
+        originFill = new int[size * size];
+
+        int slots = 64;
+        while (slots < 2 * clusterCols)
+            slots *= 2;
+        fillSlots = new int[slots][];
+        slotCluster = new int[slots];
+
+        Arrays.fill(dirty, true);
+        anyDirty = true;
+        rebuild(terrain);
+    }
+
+    public int getClusterCount() {
+        return nodeCells.length;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return roughly how many bytes the abstraction takes up
+     */
+    public long getFootprint() {
+        long bytes = 0;
+        for (int k = 0; k < nodeCells.length; ++k)
+            bytes += 4 * nodeCells[k].length + intraDists[k].length;
+        return bytes + 4L * 6 * nodeCount + 5L * nodeCells.length
+            + 4L * size * size * fillSlots.length;
+    }
+
+    /**
+     * Marks the cluster of <code>cell</code> as changed.
+     */
+    public void invalidate(int cell) {
+        int k = clusterOf(cell);
+        int cy = k / clusterCols, cx = k % clusterCols;
+
+        // Our entrances are our neighbours' entrances, too.
+        dirty[k] = true;
+        if (cx > 0)
+            dirty[k - 1] = true;
+        if (cx < clusterCols - 1)
+            dirty[k + 1] = true;
+        if (cy > 0)
+            dirty[k - clusterCols] = true;
+        if (cy < clusterRows - 1)
+            dirty[k + clusterCols] = true;
+        anyDirty = true;
+    }
+
+    /**
+     * Redoes the invalidated clusters over <code>terrain</code>, which must
+     * be as big as the one we were built on.
+     */
+    public void rebuild(Terrain terrain) {
+        if (terrain.getWidth() != width || terrain.getHeight() != height)
+            throw new IllegalArgumentException("terrain size changed");
+        this.terrain = terrain;
+
+        if (!anyDirty)
+            return;
+
+        for (int k = 0; k < nodeCells.length; ++k)
+            if (dirty[k]) {
+                buildCluster(k);
+                dirty[k] = false;
+            }
+        anyDirty = false;
+
+        // The numbering (and so the links across clusters) is cheap enough
+        // to redo from scratch.
+        nodeCount = 0;
+        for (int k = 0; k < nodeCells.length; ++k) {
+            firstNode[k] = nodeCount;
+            nodeCount += nodeCells[k].length;
+        }
+
+        nodeCluster = new int[nodeCount];
+        across = new int[4 * nodeCount];
+        for (int k = 0; k < nodeCells.length; ++k)
+            for (int i = 0; i < nodeCells[k].length; ++i) {
+                int node = firstNode[k] + i;
+                int cell = nodeCells[k][i];
+                int x = cell % width;
+                nodeCluster[node] = k;
+                across[4 * node] = (x > 0) ? findNode(cell - 1) : -1;
+                across[4 * node + 1] = (x < width - 1) ? findNode(cell + 1) : -1;
+                across[4 * node + 2] = (cell >= width) ? findNode(cell - width) : -1;
+                across[4 * node + 3] = (cell + width < width * height)
+                    ? findNode(cell + width) : -1;
+            }
+
+        nodeDists = new int[nodeCount];
+        origin = -1;
+        Arrays.fill(slotCluster, -1);
+    }
+
+    /**
+     * Computes the distances from <code>from</code> to every node.
+     */
+    public void search(int from) {
+        if (anyDirty)
+            rebuild(terrain);
+
+        final int infinity = terrain.getInfinity();
+        Arrays.fill(nodeDists, infinity);
+        origin = from;
+        Arrays.fill(slotCluster, -1);
+
+        int k = clusterOf(from);
+        localFill(k, from, originFill);
+
+        Arrays.fill(bucketHead, -1);
+        nEntries = 0;
+        int pending = 0;
+
+        int[] cells = nodeCells[k];
+        for (int i = 0; i < cells.length; ++i) {
+            int d = originFill[localIndex(k, cells[i])];
+            if (d != UNREACHABLE) {
+                nodeDists[firstNode[k] + i] = d;
+                enqueue(d, firstNode[k] + i);
+                ++pending;
+            }
+        }
+
+        for (int d = 0; pending > 0; ++d) {
+            int bucket = d & UNREACHABLE;
+            while (bucketHead[bucket] >= 0) {
+                int e = bucketHead[bucket];
+                bucketHead[bucket] = entryNext[e];
+                --pending;
+
+                int node = entryNode[e];
+                if (d > nodeDists[node])
+                    continue;
+
+                // Through the cluster...
+                int nk = nodeCluster[node];
+                int first = firstNode[nk];
+                int n = nodeCells[nk].length;
+                byte[] table = intraDists[nk];
+                int row = (node - first) * n;
+                for (int j = 0; j < n; ++j) {
+                    int local = table[row + j] & 0xff;
+                    if (local == UNREACHABLE || local == 0)
+                        continue;
+                    if (d + local < nodeDists[first + j]) {
+                        nodeDists[first + j] = d + local;
+                        enqueue(d + local, first + j);
+                        ++pending;
+                    }
+                }
+
+                // ...and across its borders.
+                for (int a = 4 * node; a < 4 * node + 4; ++a) {
+                    int other = across[a];
+                    if (other >= 0 && d + 1 < nodeDists[other]) {
+                        nodeDists[other] = d + 1;
+                        enqueue(d + 1, other);
+                        ++pending;
+                    }
+                }
+            }
+        }
+    }
+
+    private void enqueue(int d, int node) {
+        if (nEntries == entryNode.length) {
+            entryNode = Arrays.copyOf(entryNode, 2 * nEntries);
+            entryNext = Arrays.copyOf(entryNext, 2 * nEntries);
+        }
+        int bucket = d & UNREACHABLE;
+        entryNode[nEntries] = node;
+        entryNext[nEntries] = bucketHead[bucket];
+        bucketHead[bucket] = nEntries++;
+    }
+
+    /**
+     * @return the length of the shortest way from the origin of the last
+     *         search to <code>cell</code> through the abstract graph, or
+     *         <code>Terrain.getInfinity()</code> if there's none
+     */
+    public int approximateDistance(int cell) {
+        if (origin < 0)
+            throw new IllegalStateException("no search yet");
+
+        int k = clusterOf(cell);
+        int slot = k & (fillSlots.length - 1);
+        if (fillSlots[slot] == null)
+            fillSlots[slot] = new int[size * size];
+        clusterFill = fillSlots[slot];
+        if (slotCluster[slot] != k) {
+            fillFromNodes(k);
+            slotCluster[slot] = k;
+        }
+
+        // Within the origin's cluster the straight way may be shorter, if
+        // there is one: the walls may split the cluster in two
+        int local = localIndex(k, cell);
+        int best = clusterFill[local];
+        if (k == clusterOf(origin) && originFill[local] != UNREACHABLE &&
+            originFill[local] < best)
+            best = originFill[local];
+        return best;
+    }
+
+    /**
+     * Fills in <code>clusterFill</code> with the distances of the cells of
+     * cluster <code>k</code>, entering it from its nodes. The nodes start
+     * at different distances, so this is Dijkstra (on a couple of hundred
+     * cells at most).
+     */
+    private void fillFromNodes(int k) {
+        final int infinity = terrain.getInfinity();
+        int[] cells = nodeCells[k];
+        int first = firstNode[k];
+
+        Arrays.fill(clusterFill, infinity);
+        heap.clear();
+        for (int i = 0; i < cells.length; ++i) {
+            int d = nodeDists[first + i];
+            int c = localIndex(k, cells[i]);
+            if (d < clusterFill[c]) {
+                clusterFill[c] = d;
+                heap.push(LongHeap.entry(d, c));
+            }
+        }
+
+        int y0 = (k / clusterCols) * size, x0 = (k % clusterCols) * size;
+        int h = Math.min(size, height - y0), w = Math.min(size, width - x0);
+
+        while (!heap.isEmpty()) {
+            long top = heap.pop();
+            int d = LongHeap.key(top);
+            int c = LongHeap.cell(top);
+            if (d > clusterFill[c])
+                continue;
+
+            int ly = c / size, lx = c % size;
+            ++d;
+            if (ly + 1 < h)
+                relaxLocal(c + size, y0 + ly + 1, x0 + lx, d);
+            if (ly > 0)
+                relaxLocal(c - size, y0 + ly - 1, x0 + lx, d);
+            if (lx + 1 < w)
+                relaxLocal(c + 1, y0 + ly, x0 + lx + 1, d);
+            if (lx > 0)
+                relaxLocal(c - 1, y0 + ly, x0 + lx - 1, d);
+        }
+    }
+
+    private void relaxLocal(int c, int y, int x, int d) {
+        if (d < clusterFill[c] && terrain.isPassable(y, x)) {
+            clusterFill[c] = d;
+            heap.push(LongHeap.entry(d, c));
+        }
+    }
+
+    /**
+     * @return the global number of the node at <code>cell</code>, or -1
+     */
+    private int findNode(int cell) {
+        int k = clusterOf(cell);
+        int[] cells = nodeCells[k];
+        for (int i = 0; i < cells.length; ++i)
+            if (cells[i] == cell)
+                return firstNode[k] + i;
+        return -1;
+    }
+
+    private int clusterOf(int cell) {
+        return ((cell / width) / size) * clusterCols + (cell % width) / size;
+    }
+
+    private int localIndex(int k, int cell) {
+        int y0 = (k / clusterCols) * size, x0 = (k % clusterCols) * size;
+        return (cell / width - y0) * size + (cell % width - x0);
+    }
+
+    private void buildCluster(int k) {
+        int cy = k / clusterCols, cx = k % clusterCols;
+        int y0 = cy * size, x0 = cx * size;
+        int y1 = Math.min(y0 + size, height), x1 = Math.min(x0 + size, width);
+
+        int[] cells = new int[4 * size];
+        int n = 0;
+
+        // West and east borders run along a column, north and south ones
+        // along a row.
+        if (cx > 0)
+            n = addEntrances(cells, n, y0, y1, x0, true, -1);
+        if (x1 < width)
+            n = addEntrances(cells, n, y0, y1, x1 - 1, true, +1);
+        if (cy > 0)
+            n = addEntrances(cells, n, x0, x1, y0, false, -1);
+        if (y1 < height)
+            n = addEntrances(cells, n, x0, x1, y1 - 1, false, +1);
+
+        nodeCells[k] = Arrays.copyOf(cells, n);
+
+        byte[] table = new byte[n * n];
+        for (int i = 0; i < n; ++i) {
+            localFill(k, cells[i], fill);
+            for (int j = 0; j < n; ++j)
+                table[i * n + j] = (byte) fill[localIndex(k, cells[j])];
+        }
+        intraDists[k] = table;
+    }
+
+    /**
+     * Finds the passable runs along one border of a cluster, and adds the
+     * cells of their entrances on our side.
+     *
+     * @param from the first cell of the border, along it
+     * @param to one past the last
+     * @param at the border row or column, on our side
+     * @param vertical true if the border is a column
+     * @param out which way the other side is, -1 or +1
+     */
+    private int addEntrances(int[] cells, int n, int from, int to, int at,
+                             boolean vertical, int out) {
+        int runStart = -1;
+        for (int i = from; i <= to; ++i) {
+            boolean open = i < to && (vertical
+                                      ? terrain.isPassable(i, at) && terrain.isPassable(i, at + out)
+                                      : terrain.isPassable(at, i) && terrain.isPassable(at + out, i));
+            if (open && runStart < 0)
+                runStart = i;
+            else if (!open && runStart >= 0) {
+                int length = i - runStart;
+                if (length >= LONG_RUN) {
+                    n = addNode(cells, n, vertical ? terrain.cell(runStart, at) : terrain.cell(at, runStart));
+                    n = addNode(cells, n, vertical ? terrain.cell(i - 1, at) : terrain.cell(at, i - 1));
+                } else {
+                    int mid = runStart + length / 2;
+                    n = addNode(cells, n, vertical ? terrain.cell(mid, at) : terrain.cell(at, mid));
+                }
+                runStart = -1;
+            }
+        }
+        return n;
+    }
+
+    private static int addNode(int[] cells, int n, int cell) {
+        // A corner cell may be on two borders
+        for (int i = 0; i < n; ++i)
+            if (cells[i] == cell)
+                return n;
+        cells[n] = cell;
+        return n + 1;
+    }
+
+    /**
+     * Breadth first fill from <code>start</code>, staying within cluster
+     * <code>k</code>; <code>out</code> is indexed by local cell.
+     */
+    private void localFill(int k, int start, int[] out) {
+        int cy = k / clusterCols, cx = k % clusterCols;
+        int y0 = cy * size, x0 = cx * size;
+        int h = Math.min(size, height - y0), w = Math.min(size, width - x0);
+
+        Arrays.fill(out, UNREACHABLE);
+        int head = 0, tail = 0;
+        int s = localIndex(k, start);
+        out[s] = 0;
+        queue[tail++] = s;
+
+        while (head < tail) {
+            int c = queue[head++];
+            int ly = c / size, lx = c % size;
+            int next = out[c] + 1;
+
+            if (ly + 1 < h)
+                tail = localVisit(out, c + size, y0 + ly + 1, x0 + lx, next, tail);
+            if (ly > 0)
+                tail = localVisit(out, c - size, y0 + ly - 1, x0 + lx, next, tail);
+            if (lx + 1 < w)
+                tail = localVisit(out, c + 1, y0 + ly, x0 + lx + 1, next, tail);
+            if (lx > 0)
+                tail = localVisit(out, c - 1, y0 + ly, x0 + lx - 1, next, tail);
+        }
+    }
+
+    private int localVisit(int[] out, int c, int y, int x, int d, int tail) {
+        if (out[c] == UNREACHABLE && terrain.isPassable(y, x)) {
+            out[c] = d;
+            queue[tail++] = c;
+        }
+        return tail;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+/**
+ * A point in time some work must be over by, as told by
+ * <code>System.nanoTime</code>.
+ */
+public class Deadline {
+    /** A deadline that never comes */
+    public static final Deadline NONE = new Deadline();
+
+    private final long end;
+    private final boolean never;
+
+    private Deadline() {
+        end = 0;
+        never = true;
+    }
+
+    /**
+     * @param nanos how long from now
+     */
+    public Deadline(long nanos) {
+        end = System.nanoTime() + nanos;
+        never = false;
+    }
+
+    /** @return how many nanoseconds are left, possibly less than none */
+    public long remaining() {
+        return never ? Long.MAX_VALUE : end - System.nanoTime();
+    }
+
+    public boolean hasExpired() {
+        return remaining() <= 0;
+    }
+
+    /**
+     * @return true if there's still time for something we expect to take
+     *         <code>nanos</code>
+     */
+    public boolean allows(long nanos) {
+        return remaining() >= nanos;
+    }
+}
@@ -343,6 +343,9 @@ public class Debugger extends Observable implements UpdateHandler {
         int width = scanner.nextInt();
         int height = scanner.nextInt();
 
+        FlightEvents.BoardLoadEvent event = new FlightEvents.BoardLoadEvent();
+        event.begin();
+
         LinkedList<String> rows = new LinkedList<String>();
         for (int row = 0; row < height; row++)
             rows.add(recvLine());
@@ -352,6 +355,13 @@ public class Debugger extends Observable implements UpdateHandler {
         } catch (InvalidBoardException e) {
             throw new ProtocolException("invalid board: " + e.getMessage());
         }
+
+        if (event.shouldCommit()) {
+            event.loader = "debugger";
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
     }
 
     private void recvPlayerList() throws IOException, ProtocolException {
@@ -0,0 +1,163 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Distance maps worked out in advance (by <code>AtlasBuilder</code>) for
+ * the targets a board is likely to have, read straight from a memory
+ * mapped file.
+ * <p>
+ * An atlas is named after the hash of the terrain it was made for
+ * (<tt>&lt;hash&gt;.atlas</tt>, in hex), so a player can tell whether
+ * there's one for the board it was sent without knowing the board's name.
+ * The file is laid out as:
+ * <pre>
+ *   magic "CSRATLAS", version (int), hash (long), width, height (ints)
+ *   count (int), the target cells (count ints, ascending)
+ *   count maps, each a char (two bytes) per cell, 0xffff for unreachable
+ * </pre>
+ * all big endian.
+ */
+public class DistanceAtlas {
+    static final long MAGIC = 0x43535241544c4153L;
+    static final int VERSION = 1;
+    static final char UNREACHABLE = 0xffff;
+
+    /** The most bytes mapped at once; maps are never split between mappings */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final int size, infinity;
+    private final int[] targets;
+
+    /** The maps, <code>mapsPerSegment</code> to a mapping */
+    private final CharBuffer[] segments;
+    private final int mapsPerSegment;
+
+    private long hits = 0, misses = 0;
+
+    private DistanceAtlas(Terrain terrain, int[] targets, CharBuffer[] segments,
+                          int mapsPerSegment) {
+        size = terrain.getSize();
+        infinity = terrain.getInfinity();
+        this.targets = targets;
+        this.segments = segments;
+        this.mapsPerSegment = mapsPerSegment;
+    }
+
+    public static String fileName(Terrain terrain) {
+        return String.format("%016x.atlas", terrain.getHash());
+    }
+
+    /**
+     * Maps the atlas for <code>terrain</code> in <code>dir</code>.
+     *
+     * @return the atlas, or null if there's none (or it's not for this
+     *         terrain after all)
+     */
+    public static DistanceAtlas open(File dir, Terrain terrain) throws IOException {
+        File file = new File(dir, fileName(terrain));
+        if (!file.isFile())
+            return null;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                            Math.min(channel.size(), 32));
+            if (header.remaining() < 32 ||
+                header.getLong() != MAGIC || header.getInt() != VERSION ||
+                header.getLong() != terrain.getHash() ||
+                header.getInt() != terrain.getWidth() ||
+                header.getInt() != terrain.getHeight())
+                return null;
+
+            int count = header.getInt();
+            long mapsAt = 32 + 4L * count;
+            long mapBytes = 2L * terrain.getSize();
+            if (count < 0 || channel.size() != mapsAt + count * mapBytes)
+                return null;
+
+            int[] targets = new int[count];
+            channel.map(FileChannel.MapMode.READ_ONLY, 32, 4L * count)
+                .asIntBuffer().get(targets);
+
+            int mapsPerSegment = (int) Math.max(1, SEGMENT_BYTES / mapBytes);
+            CharBuffer[] segments = new CharBuffer[(count + mapsPerSegment - 1) / mapsPerSegment];
+            for (int i = 0; i < segments.length; ++i) {
+                int maps = Math.min(mapsPerSegment, count - i * mapsPerSegment);
+                MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY,
+                                mapsAt + i * mapsPerSegment * mapBytes, maps * mapBytes);
+                segments[i] = buffer.asCharBuffer();
+            }
+
+            // The mappings stay valid once the channel is closed
+            return new DistanceAtlas(terrain, targets, segments, mapsPerSegment);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int getMapCount() {
+        return targets.length;
+    }
+
+    public boolean contains(int target) {
+        return Arrays.binarySearch(targets, target) >= 0;
+    }
+
+    /**
+     * Fills in <code>distances</code> with the map for <code>target</code>,
+     * if we have it.
+     *
+     * @return false if we don't
+     */
+    public boolean get(int target, int[] distances) {
+        int i = Arrays.binarySearch(targets, target);
+        if (i < 0) {
+            ++misses;
+            return false;
+        }
+
+        ++hits;
+        CharBuffer map = segments[i / mapsPerSegment].duplicate();
+        map.position((i % mapsPerSegment) * size);
+        for (int c = 0; c < size; ++c) {
+            char d = map.get();
+            distances[c] = (d == UNREACHABLE) ? infinity : d;
+        }
+        return true;
+    }
+
+    public void printStatistics(PrintStream out) {
+        out.printf("distance atlas: %d maps, %d hits, %d misses\n",
+                   targets.length, hits, misses);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Full distance maps we've already filled in, by target cell, so going
+ * back to the same base or destination doesn't take another fill. The
+ * terrain never changes, so they never go stale.
+ * <p>
+ * Maps are kept two bytes per cell (<code>0xffff</code> standing for
+ * infinity); those with longer distances than that aren't kept at all.
+ * When the maps kept would take more than the budget, the least recently
+ * used go first.
+ */
+public class DistanceCache {
+    private static final char UNREACHABLE = 0xffff;
+
+    /** A map, and the cells its fill had to look at */
+    private static class Entry {
+        final char[] distances;
+        final int work;
+
+        Entry(char[] distances, int work) {
+            this.distances = distances;
+            this.work = work;
+        }
+    }
+
+    private final int size, infinity;
+    private final long budget;
+    private long used = 0;
+
+    /** In access order, least recent first */
+    private final LinkedHashMap<Integer, Entry> entries =
+        new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+
+    private long hits = 0, misses = 0, evictions = 0, workSaved = 0;
+
+    /**
+     * @param budget how many bytes the maps may take, at most
+     */
+    public DistanceCache(Terrain terrain, long budget) {
+        size = terrain.getSize();
+        infinity = terrain.getInfinity();
+        this.budget = budget;
+    }
+
+    /**
+     * Fills in <code>distances</code> with the map for <code>target</code>,
+     * if we have it.
+     *
+     * @return false on a miss
+     */
+    public boolean get(int target, int[] distances) {
+        Entry e = entries.get(target);
+        if (e == null) {
+            ++misses;
+            return false;
+        }
+
+        ++hits;
+        workSaved += e.work;
+        char[] d = e.distances;
+        for (int i = 0; i < size; ++i)
+            distances[i] = (d[i] == UNREACHABLE) ? infinity : d[i];
+        return true;
+    }
+
+    /**
+     * Keeps the map just filled in for <code>target</code>, if it fits.
+     *
+     * @param work the cells its fill looked at
+     */
+    public void put(int target, int[] distances, int work) {
+        long bytes = 2L * size;
+        if (bytes > budget || entries.containsKey(target))
+            return;
+
+        char[] d = new char[size];
+        for (int i = 0; i < size; ++i) {
+            int v = distances[i];
+            if (v == infinity)
+                d[i] = UNREACHABLE;
+            else if (v < UNREACHABLE)
+                d[i] = (char) v;
+            else
+                return;
+        }
+
+        Iterator<Map.Entry<Integer, Entry>> oldest = entries.entrySet().iterator();
+        while (used + bytes > budget) {
+            oldest.next();
+            oldest.remove();
+            used -= bytes;
+            ++evictions;
+        }
+
+        entries.put(target, new Entry(d, work));
+        used += bytes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /** The cells the fills we didn't have to do would have looked at */
+    public long getWorkSaved() {
+        return workSaved;
+    }
+
+    public void printStatistics(PrintStream out) {
+        out.printf("distance cache: %d hits, %d misses, %d evictions, " +
+                   "%d maps (%d KB), %d cells of fills saved\n",
+                   hits, misses, evictions, entries.size(), used >> 10, workSaved);
+    }
+}
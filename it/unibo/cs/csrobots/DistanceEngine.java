@@ -0,0 +1,37 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+/**
+ * Something that fills in a "gradient" map: the minimum distance (in
+ * moves) from a given cell to every other cell of a <code>Terrain</code>.
+ * Cells that cannot be reached are set to <code>Terrain.getInfinity()</code>.
+ * <p>
+ * An engine may keep scratch buffers around between calls, so a single
+ * instance must not be used by more than one thread at a time.
+ */
+public interface DistanceEngine {
+    /**
+     * @param distances where to store the distances, indexed by cell
+     * @param origin the cell whose distances we want
+     * @return the number of cells that were reached
+     */
+    int computeDistances(int[] distances, int origin);
+}
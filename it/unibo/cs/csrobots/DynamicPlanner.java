@@ -0,0 +1,354 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * A planner that keeps the distances to the target up to date as cells get
+ * blocked and unblocked (by the other robots, say), repairing only what
+ * changed instead of starting over.
+ * <p>
+ * As in D* Lite, the distances are taken <i>from the target</i>: the robot
+ * moving around changes nothing, so as long as the target stays the same
+ * there's nothing to redo but for the obstacles.
+ * <ul>
+ * <li>When a cell is unblocked, the distances can only get shorter: they
+ *     spread out from it for as long as they improve.
+ * <li>When a cell is blocked, the cells that can no longer get to the
+ *     target as fast as before are those whose every shortest way went
+ *     through it. We find them by going out from the cell one distance at
+ *     a time, and then fill them in again from the cells around them.
+ * </ul>
+ * Either way the work is about the size of the area whose distances
+ * changed. If the obstacles cut us off from the target altogether, they
+ * are ignored until the next target.
+ */
+public class DynamicPlanner implements PathPlanner {
+    private final Terrain terrain;
+    private final int width, size, infinity;
+
+    /** The field we're keeping up to date, and what it leads to */
+    private int[] distances = null;
+    private int target = -1;
+
+    /**
+     * The obstacles, as a set of cells, and the array they go in next
+     * time round
+     */
+    private final boolean[] blocked;
+    private int[] obstacles = new int[16];
+    private int[] nextObstacles = new int[16];
+    private int nObstacles = 0;
+
+    /** Set if the obstacles cut us off, so we're going without them */
+    private boolean suspended = false;
+
+    /** Scratch: stamps for the cells hit by a block, a queue, a heap */
+    private final int[] stamp;
+    private int epoch = 0;
+    private int[] queue;
+    private final LongHeap heap = new LongHeap(64);
+
+    /**
+     * Cells whose distance was (re)computed since the last reset, and
+     * since the last plan
+     */
+    private long work = 0;
+    private int planWork = 0;
+
+    public DynamicPlanner(Terrain terrain) {
+        this.terrain = terrain;
+        width = terrain.getWidth();
+        size = terrain.getSize();
+        infinity = terrain.getInfinity();
+        blocked = new boolean[size];
+        stamp = new int[size];
+        queue = new int[size];
+    }
+
+    /**
+     * @return the cells whose distance was (re)computed since the last
+     *         call, obstacles coming and going included
+     */
+    public int plan(int[] distances, int target, int origin) {
+        if (distances != this.distances || target != this.target) {
+            this.distances = distances;
+            this.target = target;
+            suspended = false;
+            rebuild();
+        }
+
+        if (distances[origin] == infinity && nObstacles > 0 && !suspended) {
+            // Walled in: better to push our way through.
+            suspended = true;
+            for (int i = 0; i < nObstacles; ++i)
+                unblock(obstacles[i]);
+        }
+
+        int visited = planWork;
+        planWork = 0;
+        return visited;
+    }
+
+    public boolean isSettled(int cell) {
+        // Everything is, unless the obstacles cut us off (see plan).
+        return distances != null &&
+            (distances[cell] != infinity || suspended || nObstacles == 0);
+    }
+
+    /**
+     * Replaces the obstacles with the given cells, and repairs the
+     * distances accordingly. The target is never an obstacle.
+     */
+    public void setObstacles(int[] cells, int count) {
+        // There's only a handful of them, so no need for anything clever.
+        // What's kept comes from cells, so count is all the room it needs
+        int kept = 0;
+        if (nextObstacles.length < count)
+            nextObstacles = new int[Math.max(count, 2 * nextObstacles.length)];
+        int[] next = nextObstacles;
+        for (int i = 0; i < nObstacles; ++i) {
+            int c = obstacles[i];
+            if (contains(cells, count, c)) {
+                next[kept++] = c;
+            } else {
+                blocked[c] = false;
+                if (distances != null && !suspended)
+                    unblock(c);
+            }
+        }
+
+        for (int i = 0; i < count; ++i) {
+            int c = cells[i];
+            if (c == target || blocked[c])
+                continue;
+            blocked[c] = true;
+            next[kept++] = c;
+            if (distances != null && !suspended)
+                block(c);
+        }
+
+        nextObstacles = obstacles;
+        obstacles = next;
+        nObstacles = kept;
+    }
+
+    private static boolean contains(int[] cells, int count, int cell) {
+        for (int i = 0; i < count; ++i)
+            if (cells[i] == cell)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return the number of cells given a distance since the last call
+     */
+    public long resetWork() {
+        long w = work;
+        work = 0;
+        return w;
+    }
+
+    private void countWork(int cells) {
+        work += cells;
+        planWork += cells;
+    }
+
+    private boolean open(int c) {
+        return terrain.isPassable(c) && (suspended || !blocked[c]);
+    }
+
+    private void rebuild() {
+        Arrays.fill(distances, 0, size, infinity);
+        int head = 0, tail = 0;
+        distances[target] = 0;
+        queue[tail++] = target;
+
+        while (head < tail) {
+            int c = queue[head++];
+            int d = distances[c] + 1;
+            int x = c % width;
+            if (c + width < size)
+                tail = visit(c + width, d, tail);
+            if (c >= width)
+                tail = visit(c - width, d, tail);
+            if (x + 1 < width)
+                tail = visit(c + 1, d, tail);
+            if (x > 0)
+                tail = visit(c - 1, d, tail);
+        }
+        countWork(tail);
+    }
+
+    private int visit(int n, int d, int tail) {
+        if (d < distances[n] && open(n)) {
+            distances[n] = d;
+            queue[tail++] = n;
+        }
+        return tail;
+    }
+
+    /**
+     * Lets the distances spread through a cell that was just opened.
+     */
+    private void unblock(int b) {
+        if (!terrain.isPassable(b))
+            return;
+
+        int best = (b == target) ? 0 : infinity;
+        int x = b % width;
+        if (b + width < size && open(b + width))
+            best = Math.min(best, distances[b + width] + 1);
+        if (b >= width && open(b - width))
+            best = Math.min(best, distances[b - width] + 1);
+        if (x + 1 < width && open(b + 1))
+            best = Math.min(best, distances[b + 1] + 1);
+        if (x > 0 && open(b - 1))
+            best = Math.min(best, distances[b - 1] + 1);
+        if (best >= infinity)
+            return;
+
+        // A plain breadth first fill, but only as far as it improves
+        // things.
+        distances[b] = best;
+        int head = 0, tail = 0;
+        queue[tail++] = b;
+        while (head < tail) {
+            int c = queue[head++];
+            int d = distances[c] + 1;
+            x = c % width;
+            if (c + width < size)
+                tail = visit(c + width, d, tail);
+            if (c >= width)
+                tail = visit(c - width, d, tail);
+            if (x + 1 < width)
+                tail = visit(c + 1, d, tail);
+            if (x > 0)
+                tail = visit(c - 1, d, tail);
+        }
+        countWork(tail);
+    }
+
+    /**
+     * Takes a cell out, and fills in again the cells that relied on it.
+     */
+    private void block(int b) {
+        if (!terrain.isPassable(b) || distances[b] == infinity)
+            return;
+
+        // Find the cells that relied on b. We go one distance at a time,
+        // so when we look at a cell all of its possible supports (one
+        // closer to the target) have already been looked at.
+        ++epoch;
+        int head = 0, tail = 0;
+        stamp[b] = epoch;
+        queue[tail++] = b;
+        while (head < tail) {
+            int c = queue[head++];
+            int d = distances[c] + 1;
+            int x = c % width;
+            if (c + width < size)
+                tail = orphan(c + width, d, tail);
+            if (c >= width)
+                tail = orphan(c - width, d, tail);
+            if (x + 1 < width)
+                tail = orphan(c + 1, d, tail);
+            if (x > 0)
+                tail = orphan(c - 1, d, tail);
+        }
+        int affected = tail;
+
+        for (int i = 0; i < affected; ++i)
+            distances[queue[i]] = infinity;
+
+        // Fill them in again, starting from their neighbours that kept
+        // their distance. These are all over the place, hence the heap.
+        heap.clear();
+        for (int i = 1; i < affected; ++i) {
+            int c = queue[i];
+            int best = infinity;
+            int x = c % width;
+            if (c + width < size && stamp[c + width] != epoch && open(c + width))
+                best = Math.min(best, distances[c + width] + 1);
+            if (c >= width && stamp[c - width] != epoch && open(c - width))
+                best = Math.min(best, distances[c - width] + 1);
+            if (x + 1 < width && stamp[c + 1] != epoch && open(c + 1))
+                best = Math.min(best, distances[c + 1] + 1);
+            if (x > 0 && stamp[c - 1] != epoch && open(c - 1))
+                best = Math.min(best, distances[c - 1] + 1);
+            if (best < infinity) {
+                distances[c] = best;
+                heap.push(LongHeap.entry(best, c));
+            }
+        }
+
+        while (!heap.isEmpty()) {
+            long top = heap.pop();
+            int d = LongHeap.key(top);
+            int c = LongHeap.cell(top);
+            if (d > distances[c])
+                continue;
+
+            ++d;
+            int x = c % width;
+            if (c + width < size)
+                refill(c + width, d);
+            if (c >= width)
+                refill(c - width, d);
+            if (x + 1 < width)
+                refill(c + 1, d);
+            if (x > 0)
+                refill(c - 1, d);
+        }
+        countWork(affected);
+    }
+
+    /**
+     * Marks <code>n</code> as relying on a blocked cell if, at distance
+     * <code>d</code>, it has no neighbour left one step closer.
+     */
+    private int orphan(int n, int d, int tail) {
+        if (distances[n] != d || stamp[n] == epoch || !open(n))
+            return tail;
+
+        int x = n % width;
+        if ((n + width < size && supports(n + width, d)) ||
+            (n >= width && supports(n - width, d)) ||
+            (x + 1 < width && supports(n + 1, d)) ||
+            (x > 0 && supports(n - 1, d)))
+            return tail;
+
+        stamp[n] = epoch;
+        queue[tail++] = n;
+        return tail;
+    }
+
+    private boolean supports(int c, int d) {
+        return distances[c] == d - 1 && stamp[c] != epoch && open(c);
+    }
+
+    private void refill(int n, int d) {
+        if (stamp[n] == epoch && d < distances[n] && open(n)) {
+            distances[n] = d;
+            heap.push(LongHeap.entry(d, n));
+        }
+    }
+}
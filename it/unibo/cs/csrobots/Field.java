@@ -61,6 +61,13 @@ public class Field extends Observable {
         public HashMap<Integer, Packet> packets = null;
         public Robot visitor = null;
 
+        /**
+         * The packet list line for this square, as sent to the players, or
+         * null if it must be (re)encoded. Dropped whenever the packets on
+         * this square change.
+         */
+        public String encodedPackets = null;
+
         public CellData() {
             packets = new HashMap<Integer, Packet>();
         }
@@ -90,6 +97,14 @@ public class Field extends Observable {
         }
     }
 
+    /**
+     * @return the terrain type a board file writes as <code>symbol</code>,
+     *         or null if there's none
+     */
+    public static CellType parseSymbol(char symbol) {
+        return symbolsToCellType.get(symbol);
+    }
+
     /**
      * Constructs a new <code>Field</code> object from a list of string
      * representation of it's rows. Throws <code>InvalidBoardException</code>
@@ -241,9 +256,10 @@ public class Field extends Observable {
     {
         validatePosition(pos);
 
-        if (containsPacket(pos, packetId))
+        if (containsPacket(pos, packetId)) {
+            get(pos).data.encodedPackets = null;
             return get(pos).data.packets.remove(packetId);
-        else
+        } else
             return null;
     }
 
@@ -255,8 +271,44 @@ public class Field extends Observable {
         Cell sq = get(pos);
 
         if (sq.isHolder())
-            if (!containsPacket(pos, packet.getId()))
+            if (!containsPacket(pos, packet.getId())) {
                 sq.data.packets.put(packet.getId(), packet);
+                sq.data.encodedPackets = null;
+            }
+    }
+
+    /**
+     * Returns the packets lying on <code>pos</code> in their protocol
+     * representation (e.g. <tt>[id,row,col,weight;...]</tt>).
+     * <p>
+     * Most squares don't change from one turn to another, so the line is
+     * encoded once and kept around until a packet is added to or removed
+     * from the square.
+     */
+    public String getEncodedPackets(Position pos)
+        throws IndexOutOfBoundsException
+    {
+        validatePosition(pos);
+
+        Cell sq = get(pos);
+        if (!sq.isHolder())
+            return "[]";
+
+        if (sq.data.encodedPackets == null) {
+            StringBuilder repr = new StringBuilder("[");
+            boolean first = true;
+            for (Packet p : sq.data.packets.values()) {
+                if (!first)
+                    repr.append(';');
+                repr.append(p.getId()).append(',')
+                    .append(p.getDestination().getY()).append(',')
+                    .append(p.getDestination().getX()).append(',')
+                    .append(p.getWeight());
+                first = false;
+            }
+            sq.data.encodedPackets = repr.append(']').toString();
+        }
+        return sq.data.encodedPackets;
     }
 
     public void setRobot(Position pos, Robot robot)
@@ -0,0 +1,177 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Custom Java Flight Recorder events, so that turns, commands and the
+ * player's path finding show up on the same timeline as GC pauses and
+ * socket waits.
+ * <p>
+ * All of them are used the same way:
+ * <pre>
+ *     SomeEvent event = new SomeEvent();
+ *     event.begin();
+ *     ...
+ *     if (event.shouldCommit()) {
+ *         event.someField = ...;
+ *         event.commit();
+ *     }
+ * </pre>
+ * When recording is off <code>shouldCommit()</code> is false and the JIT
+ * gets rid of the allocation, so the fields (some of which are expensive
+ * to compute) are never filled in.
+ */
+final class FlightEvents {
+    private FlightEvents() {}
+
+    //// Server
+
+    @Name("csrobots.Turn")
+    @Label("Turn")
+    @Category({"CSRobots", "Server"})
+    @Description("A whole server turn, from its start to the updates broadcast")
+    static class TurnEvent extends Event {
+        @Label("Turn")
+        int turn;
+
+        @Label("Live Players")
+        int livePlayers;
+    }
+
+    @Name("csrobots.CommandReceived")
+    @Label("Command Received")
+    @Category({"CSRobots", "Server"})
+    @Description("Waiting for and parsing a player's command")
+    static class CommandReceivedEvent extends Event {
+        @Label("Player")
+        int player;
+
+        @Label("Command")
+        String command;
+
+        @Label("Parse Failures")
+        int parseFailures;
+    }
+
+    @Name("csrobots.CommandExecuted")
+    @Label("Command Executed")
+    @Category({"CSRobots", "Server"})
+    static class CommandExecutedEvent extends Event {
+        @Label("Player")
+        int player;
+
+        @Label("Bid")
+        int bid;
+
+        @Label("Command")
+        String command;
+
+        @Label("Updates")
+        int updates;
+    }
+
+    @Name("csrobots.UpdateBroadcast")
+    @Label("Update Broadcast")
+    @Category({"CSRobots", "Server"})
+    @Description("Sending the turn updates to players and debuggers")
+    static class UpdateBroadcastEvent extends Event {
+        @Label("Updates")
+        int updates;
+
+        @Label("Recipients")
+        int recipients;
+
+        @Label("Line Length")
+        int length;
+    }
+
+    //// Shared
+
+    @Name("csrobots.BoardLoad")
+    @Label("Board Load")
+    @Category({"CSRobots"})
+    @Description("Parsing a board, by the server, a player or the debugger")
+    static class BoardLoadEvent extends Event {
+        @Label("Loaded By")
+        String loader;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    //// Player
+
+    @Name("csrobots.NextTarget")
+    @Label("Next Target")
+    @Category({"CSRobots", "Player"})
+    @Description("Player.computeNextTarget")
+    static class NextTargetEvent extends Event {
+        @Label("Board Size")
+        int boardSize;
+
+        @Label("Candidate Sources")
+        int sources;
+
+        @Label("Carried Packets")
+        int carried;
+
+        @Label("Target Row")
+        int targetY;
+
+        @Label("Target Column")
+        int targetX;
+    }
+
+    @Name("csrobots.DistanceField")
+    @Label("Distance Field")
+    @Category({"CSRobots", "Player"})
+    @Description("Computing the distances from a square")
+    static class DistanceFieldEvent extends Event {
+        @Label("Board Size")
+        int boardSize;
+
+        @Label("Cells Visited")
+        int cellsVisited;
+    }
+
+    @Name("csrobots.Direction")
+    @Label("Direction")
+    @Category({"CSRobots", "Player"})
+    @Description("Player.computeDirection, including the path danger scoring")
+    static class DirectionEvent extends Event {
+        @Label("Board Size")
+        int boardSize;
+
+        @Label("Cells Visited")
+        int cellsVisited;
+
+        @Label("Direction")
+        String direction;
+    }
+}
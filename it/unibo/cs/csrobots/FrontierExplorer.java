@@ -0,0 +1,278 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * Tells where to go next when sweeping the board for packets: to the
+ * nearest cell we haven't stood on yet.
+ * <p>
+ * We keep the <i>frontier</i>, the cells not visited yet next to one that
+ * was, up to date as we go. A search through the visited cells around us
+ * can't get anywhere new without crossing it, so the first frontier cell
+ * it comes to is the nearest unvisited one. Once there, rather than taking
+ * the unvisited cells one at a time, we go straight on along the row for
+ * as long as they last: on open ground this sweeps the board row by row,
+ * as the plain scan used to, but what's left behind a wall gets picked up
+ * while we're still near it, and ground already swept is only crossed to
+ * get to some that isn't.
+ * <p>
+ * When every cell in our component has been visited, the sweep starts
+ * over.
+ */
+public class FrontierExplorer {
+    private final Terrain terrain;
+    private final int width, size;
+
+    /** The cells visited in this sweep, and the frontier, one bit per cell */
+    private final long[] visited;
+    private final long[] frontier;
+    private int frontierSize = 0;
+
+    /** How many cells of each component haven't been visited yet */
+    private final int[] unvisited;
+
+    /**
+     * Scratch for the search: a queue, and the cells it reached. Only made
+     * once we first go looking, which may well be never.
+     */
+    private int[] queue = null;
+    private long[] reached = null;
+
+    public FrontierExplorer(Terrain terrain) {
+        this.terrain = terrain;
+        width = terrain.getWidth();
+        size = terrain.getSize();
+        visited = new long[(size + 63) >>> 6];
+        frontier = new long[(size + 63) >>> 6];
+        unvisited = new int[terrain.getComponentCount()];
+        clear();
+    }
+
+    private void clear() {
+        Arrays.fill(visited, 0);
+        Arrays.fill(frontier, 0);
+        frontierSize = 0;
+        for (int i = 0; i < unvisited.length; ++i)
+            unvisited[i] = terrain.getComponentSize(i);
+    }
+
+    public boolean isVisited(int cell) {
+        return (visited[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    private boolean isFrontier(int cell) {
+        return (frontier[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /** The number of cells on the frontier */
+    public int getFrontierSize() {
+        return frontierSize;
+    }
+
+    /**
+     * Marks a cell as visited, pushing the frontier past it.
+     */
+    public void visit(int cell) {
+        if (!terrain.isPassable(cell) || isVisited(cell))
+            return;
+
+        visited[cell >>> 6] |= 1L << cell;
+        --unvisited[terrain.getComponent(cell)];
+        if (isFrontier(cell)) {
+            frontier[cell >>> 6] &= ~(1L << cell);
+            --frontierSize;
+        }
+
+        int x = cell % width;
+        if (cell + width < size)
+            extend(cell + width);
+        if (cell >= width)
+            extend(cell - width);
+        if (x + 1 < width)
+            extend(cell + 1);
+        if (x > 0)
+            extend(cell - 1);
+    }
+
+    private void extend(int n) {
+        if (terrain.isPassable(n) && !isVisited(n) && !isFrontier(n)) {
+            frontier[n >>> 6] |= 1L << n;
+            ++frontierSize;
+        }
+    }
+
+    /**
+     * Chooses where to head for from <code>origin</code>: the nearest
+     * frontier cell or, if that's right beside us in the same row, the
+     * last unvisited cell we come to going on that way. Starts a new sweep
+     * first if there's nothing left to visit.
+     *
+     * @return the cell, or -1 if <code>origin</code> is all there is
+     */
+    public int next(int origin) {
+        if (unvisited[terrain.getComponent(origin)] == 0) {
+            clear();
+            visit(origin);
+        }
+
+        int f = nearestFrontier(origin);
+        if (f < 0)
+            return -1;
+
+        int step = f - origin;
+        if (step != 1 && step != -1)
+            return f;
+
+        // Straight on: a row has only one shortest way along it
+        int end = f;
+        while (true) {
+            int n = end + step;
+            if (n < 0 || n >= size || n / width != end / width ||
+                !terrain.isPassable(n) || isVisited(n))
+                break;
+            end = n;
+        }
+        return end;
+    }
+
+    /**
+     * Where <code>next</code> would send us once we've stood on
+     * <code>origin</code>, without changing anything.
+     *
+     * @return the cell, or -1 if there's nowhere to go or a new sweep
+     *         would have to be started
+     */
+    public int peek(int origin) {
+        int component = terrain.getComponent(origin);
+        if (isVisited(origin))
+            return (unvisited[component] == 0) ? -1 : next(origin);
+        if (unvisited[component] == 1)
+            return -1;
+
+        visit(origin);
+        int f = next(origin);
+
+        // Back as we were: the frontier is the unvisited cells next to a
+        // visited one, so it's all down to the neighbours
+        visited[origin >>> 6] &= ~(1L << origin);
+        ++unvisited[component];
+        int x = origin % width;
+        if (origin + width < size)
+            retract(origin + width);
+        if (origin >= width)
+            retract(origin - width);
+        if (x + 1 < width)
+            retract(origin + 1);
+        if (x > 0)
+            retract(origin - 1);
+        if (hasVisitedNeighbour(origin)) {
+            frontier[origin >>> 6] |= 1L << origin;
+            ++frontierSize;
+        }
+        return f;
+    }
+
+    private void retract(int n) {
+        if (isFrontier(n) && !hasVisitedNeighbour(n)) {
+            frontier[n >>> 6] &= ~(1L << n);
+            --frontierSize;
+        }
+    }
+
+    private boolean hasVisitedNeighbour(int c) {
+        int x = c % width;
+        return (c + width < size && isVisited(c + width)) ||
+            (c >= width && isVisited(c - width)) ||
+            (x + 1 < width && isVisited(c + 1)) ||
+            (x > 0 && isVisited(c - 1));
+    }
+
+    /**
+     * A breadth first search through the visited cells, stopping at the
+     * first frontier cell. Next to <code>origin</code>, cells in the same
+     * row come first, the longer way along it before the shorter.
+     */
+    private int nearestFrontier(int origin) {
+        if (!isVisited(origin))
+            return origin;
+
+        int x = origin % width;
+        int east = (x + 1 < width && isFrontier(origin + 1)) ? run(origin + 1, 1) : 0;
+        int west = (x > 0 && isFrontier(origin - 1)) ? run(origin - 1, -1) : 0;
+        if (east > 0 || west > 0)
+            return (east >= west) ? origin + 1 : origin - 1;
+
+        if (queue == null) {
+            queue = new int[size];
+            reached = new long[(size + 63) >>> 6];
+        }
+
+        int found = -1;
+        int head = 0, tail = 0;
+        queue[tail++] = origin;
+        reached[origin >>> 6] |= 1L << origin;
+        while (head < tail) {
+            int c = queue[head++];
+            if (isFrontier(c)) {
+                found = c;
+                break;
+            }
+            if (!isVisited(c))
+                continue;
+
+            x = c % width;
+            if (c + width < size)
+                tail = reach(c + width, tail);
+            if (c >= width)
+                tail = reach(c - width, tail);
+            if (x + 1 < width)
+                tail = reach(c + 1, tail);
+            if (x > 0)
+                tail = reach(c - 1, tail);
+        }
+
+        // The queue still holds every cell reached
+        for (int i = 0; i < tail; ++i)
+            reached[queue[i] >>> 6] = 0;
+        return found;
+    }
+
+    private int reach(int n, int tail) {
+        if ((reached[n >>> 6] & (1L << n)) == 0 && terrain.isPassable(n)) {
+            reached[n >>> 6] |= 1L << n;
+            queue[tail++] = n;
+        }
+        return tail;
+    }
+
+    /** How many unvisited cells there are from <code>c</code> on, in a row */
+    private int run(int c, int step) {
+        int n = 0;
+        while (c >= 0 && c < size && terrain.isPassable(c) && !isVisited(c)) {
+            ++n;
+            if ((c + step) / width != c / width || c + step < 0)
+                break;
+            c += step;
+        }
+        return n;
+    }
+}
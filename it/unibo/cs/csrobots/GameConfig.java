@@ -57,13 +57,11 @@ class GameConfig {
         BufferedReader reader;
         String line;
 
+        FlightEvents.BoardLoadEvent event = new FlightEvents.BoardLoadEvent();
+        event.begin();
+
         // The playfield ...
-        LinkedList<String> fieldRows = new LinkedList<String>();
-        reader = new BufferedReader(new FileReader(boardPath));
-        while ((line = reader.readLine()) != null)
-            fieldRows.addLast(line);
-        this.field = new Field(fieldRows);
-        reader.close();
+        this.field = loadField(boardPath);
 
         // ... and it's inhabitants:
         reader = new BufferedReader(new FileReader(boardPath + ".items"));
@@ -127,6 +125,29 @@ class GameConfig {
             throw new InvalidBoardException(String.format("%s.items (line %d): syntax error",
                                                           boardPath, lineNum));
         }
+
+        if (event.shouldCommit()) {
+            event.loader = "server";
+            event.width = field.getWidth();
+            event.height = field.getHeight();
+            event.commit();
+        }
+    }
+
+    /**
+     * Reads the playfield alone, leaving out the `.items' file, for the
+     * tools that only care about the terrain.
+     */
+    static Field loadField(String boardPath)
+        throws IOException, InvalidBoardException, FileNotFoundException
+    {
+        LinkedList<String> fieldRows = new LinkedList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(boardPath));
+        String line;
+        while ((line = reader.readLine()) != null)
+            fieldRows.addLast(line);
+        reader.close();
+        return new Field(fieldRows);
     }
 
     public Field getField() {
@@ -0,0 +1,56 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+/**
+ * The brute force planner: fills in the distances to the target over the
+ * whole board, so every cell is settled, wherever we happen to be pushed.
+ * Since the maps don't depend on where we stand, they may also be cached.
+ */
+public class GradientPlanner implements PathPlanner {
+    private final DistanceEngine engine;
+    private final DistanceCache cache;
+
+    public GradientPlanner(DistanceEngine engine) {
+        this(engine, null);
+    }
+
+    /**
+     * @param cache where to keep the maps for the next time, or null
+     */
+    public GradientPlanner(DistanceEngine engine, DistanceCache cache) {
+        this.engine = engine;
+        this.cache = cache;
+    }
+
+    public int plan(int[] distances, int target, int origin) {
+        if (cache != null && cache.get(target, distances))
+            return 0;
+
+        int visited = engine.computeDistances(distances, target);
+        if (cache != null)
+            cache.put(target, distances, visited);
+        return visited;
+    }
+
+    public boolean isSettled(int cell) {
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+/**
+ * How much danger each cell is in from the robots around it.
+ * <p>
+ * Each robot adds its weight to every cell within <code>radius</code>
+ * steps (Manhattan distance), the weight depending on how far away the
+ * cell is. The map is kept up to date as robots come, go and move, so
+ * looking up a cell is a single array read, however far the robots are
+ * felt.
+ */
+public class InfluenceMap {
+    /** How a robot's weight falls off with distance */
+    public enum Decay {
+        /** The same weight all the way; with radius 2, a robot count */
+        FLAT,
+        /** One less per step, down to one at the edge */
+        LINEAR,
+        /** Halved at each step, down to one at the edge */
+        HALVING
+    }
+
+    private final int width, height;
+    private final int radius;
+
+    /** The weight at each distance, from 0 to radius */
+    private final int[] kernel;
+
+    private final int[] influence;
+
+    public InfluenceMap(Terrain terrain, int radius, Decay decay) {
+        if (radius < 0 || (decay == Decay.HALVING && radius > 30))
+            throw new IllegalArgumentException("bad radius: " + radius);
+
+        width = terrain.getWidth();
+        height = terrain.getHeight();
+        this.radius = radius;
+        influence = new int[terrain.getSize()];
+
+        kernel = new int[radius + 1];
+        for (int d = 0; d <= radius; ++d) {
+            switch (decay) {
+            case FLAT:
+                kernel[d] = 1;
+                break;
+            case LINEAR:
+                kernel[d] = radius + 1 - d;
+                break;
+            case HALVING:
+                kernel[d] = 1 << (radius - d);
+                break;
+            }
+        }
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /** The danger cell <code>(y, x)</code> is in */
+    public int get(int y, int x) {
+        return influence[y * width + x];
+    }
+
+    /** A robot appeared at <code>p</code> */
+    public void add(Position p) {
+        spread(p.getY(), p.getX(), 1);
+    }
+
+    /** The robot at <code>p</code> is gone */
+    public void remove(Position p) {
+        spread(p.getY(), p.getX(), -1);
+    }
+
+    public void move(Position from, Position to) {
+        remove(from);
+        add(to);
+    }
+
+    private void spread(int y, int x, int sign) {
+        int y0 = Math.max(y - radius, 0);
+        int y1 = Math.min(y + radius, height - 1);
+        for (int ny = y0; ny <= y1; ++ny) {
+            int dy = Math.abs(ny - y);
+            int span = radius - dy;
+            int x0 = Math.max(x - span, 0);
+            int x1 = Math.min(x + span, width - 1);
+            int row = ny * width;
+            for (int nx = x0; nx <= x1; ++nx)
+                influence[row + nx] += sign * kernel[dy + Math.abs(nx - x)];
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A map from ints to objects that doesn't box its keys: open addressing
+ * with linear probing over two parallel arrays, never more than half
+ * full. A slot is free when its value is null, so null values can't be
+ * stored. Removal shifts the entries after the slot back, instead of
+ * leaving a tombstone.
+ */
+public class IntMap<V> implements Iterable<V> {
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size = 0;
+
+    public IntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected how many entries to make room for up front
+     */
+    public IntMap(int expected) {
+        int capacity = 16;
+        while (capacity < 2 * expected)
+            capacity <<= 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Scrambles the key, so runs of keys don't make runs of slots */
+    private int slot(int key) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** Only ever a V goes into values, so this is the one cast we need */
+    @SuppressWarnings("unchecked")
+    private V valueAt(int i) {
+        return (V) values[i];
+    }
+
+    private int find(int key) {
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key)
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    public V get(int key) {
+        int i = find(key);
+        return (i >= 0) ? valueAt(i) : null;
+    }
+
+    /**
+     * @return the value <code>key</code> had before, or null
+     */
+    public V put(int key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException();
+
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = valueAt(i);
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if (2 * ++size > keys.length)
+            grow();
+        return null;
+    }
+
+    /**
+     * @return the value <code>key</code> had, or null
+     */
+    public V remove(int key) {
+        int i = find(key);
+        if (i < 0)
+            return null;
+        V old = valueAt(i);
+
+        // Pull back whatever would no longer be found past the hole
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null)
+                break;
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        values[i] = null;
+        --size;
+        return old;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[2 * oldKeys.length];
+        values = new Object[2 * oldKeys.length];
+        mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldValues[i] == null)
+                continue;
+            int j = slot(oldKeys[i]);
+            while (values[j] != null)
+                j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    /** The values, in no particular order; the map mustn't change meanwhile */
+    public Iterator<V> iterator() {
+        return new Iterator<V>()
+            {
+                private int i = advance(0);
+
+                private int advance(int from) {
+                    while (from < values.length && values[from] == null)
+                        ++from;
+                    return from;
+                }
+
+                public boolean hasNext() {
+                    return i < values.length;
+                }
+
+                public V next() {
+                    if (i >= values.length)
+                        throw new NoSuchElementException();
+                    V v = valueAt(i);
+                    i = advance(i + 1);
+                    return v;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+    }
+}
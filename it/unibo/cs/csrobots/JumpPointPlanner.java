@@ -0,0 +1,345 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * Jump Point Search, for grids where we can't move diagonally.
+ * <p>
+ * A* only ever looks at <i>jump points</i>: going in a straight line, we
+ * don't stop until something interesting happens (the target, a wall, or
+ * a cell next to an obstacle we just went past, where a new way opens up).
+ * Going up or down we also stop wherever going sideways would find
+ * something interesting. On open ground this skips the vast majority of
+ * the cells A* would have to queue.
+ * <p>
+ * The terrain never changes during a game, so we can also work out in
+ * advance how far each straight line goes from each cell, in each
+ * direction (that's "JPS+"). All that is left to the search is checking
+ * whether the target lies on the way.
+ * <p>
+ * The result is a single shortest path, painted into the distances: the
+ * cells on it (and only those) are settled. The robot will stick to it,
+ * so there's less choice left to <code>computePathCost</code>.
+ */
+public class JumpPointPlanner implements PathPlanner {
+    /** Moves, as (dx, dy): east, west, south, north */
+    private static final int[] DX = { 1, -1, 0, 0 };
+    private static final int[] DY = { 0, 0, 1, -1 };
+    private static final int EAST = 0, WEST = 1, SOUTH = 2, NORTH = 3;
+
+    /** The cell has been queued, closed, painted in the current search */
+    private static final int SEEN = 1, CLOSED = 2, PAINTED = 4;
+
+    private final Terrain terrain;
+    private final int width, height;
+
+    /**
+     * For JPS+, the straight line from each cell in each direction:
+     * <code>(length << 1) | 1</code> if it ends on a jump point,
+     * <code>length << 1</code> if it ends against a wall. Null for plain
+     * JPS.
+     */
+    private final char[][] jumps;
+
+    /** Per cell search state: cost from the origin, parent, flags */
+    private final int[] g;
+    private final int[] parent;
+    private final int[] mark;
+    private int search = 0;
+
+    /** Open list: (f, cell) entries */
+    private final LongHeap heap = new LongHeap(64);
+
+    /** The last search's distances, and the cells painted in them */
+    private int[] lastDistances = null;
+    private int[] painted = new int[64];
+    private int nPainted = 0;
+
+    /** The target, and the passable run of its row it lies in */
+    private int goal, goalX, goalY, goalLo, goalHi;
+
+    /** Cells looked at by the last search */
+    private int scanned;
+
+    /**
+     * @param precompute true for JPS+ (two bytes per cell and direction)
+     */
+    public JumpPointPlanner(Terrain terrain, boolean precompute) {
+        this.terrain = terrain;
+        width = terrain.getWidth();
+        height = terrain.getHeight();
+        g = new int[terrain.getSize()];
+        parent = new int[terrain.getSize()];
+        mark = new int[terrain.getSize()];
+
+        if (precompute && Math.max(width, height) < (1 << 15))
+            jumps = computeJumps();
+        else
+            jumps = null;
+    }
+
+    public boolean isPrecomputed() {
+        return jumps != null;
+    }
+
+    public int plan(int[] distances, int target, int origin) {
+        final int infinity = terrain.getInfinity();
+
+        if (distances != lastDistances) {
+            Arrays.fill(distances, 0, terrain.getSize(), infinity);
+            lastDistances = distances;
+        } else {
+            for (int i = 0; i < nPainted; ++i)
+                distances[painted[i]] = infinity;
+        }
+        nPainted = 0;
+        scanned = 0;
+        ++search;
+
+        goal = target;
+        goalX = terrain.getX(target);
+        goalY = terrain.getY(target);
+        goalLo = goalHi = goalX;
+        while (passable(goalLo - 1, goalY))
+            --goalLo;
+        while (passable(goalHi + 1, goalY))
+            ++goalHi;
+
+        heap.clear();
+        g[origin] = 0;
+        parent[origin] = -1;
+        mark[origin] = (search << 3) | SEEN;
+        heap.push(LongHeap.entry(heuristic(origin), origin));
+
+        while (!heap.isEmpty()) {
+            int c = LongHeap.cell(heap.pop());
+            if ((mark[c] & CLOSED) != 0)
+                continue;
+            mark[c] |= CLOSED;
+
+            if (c == target) {
+                paint(distances, target);
+                break;
+            }
+
+            int x = c % width, y = c / width;
+            int p = parent[c];
+            if (p < 0) {
+                for (int dir = 0; dir < 4; ++dir)
+                    expand(c, x, y, dir);
+            } else if (p / width == y) {
+                // Going sideways: we may turn, or keep going
+                int dir = (p < c) ? EAST : WEST;
+                expand(c, x, y, SOUTH);
+                expand(c, x, y, NORTH);
+                expand(c, x, y, dir);
+            } else {
+                int dir = (p < c) ? SOUTH : NORTH;
+                expand(c, x, y, EAST);
+                expand(c, x, y, WEST);
+                expand(c, x, y, dir);
+            }
+        }
+
+        return scanned;
+    }
+
+    public boolean isSettled(int cell) {
+        return (mark[cell] >>> 3) == search && (mark[cell] & PAINTED) != 0;
+    }
+
+    private void expand(int c, int x, int y, int dir) {
+        int j = (jumps != null) ? jumpPlus(c, x, y, dir) : jump(x, y, dir);
+        if (j < 0)
+            return;
+
+        int ng = g[c] + Math.abs(j % width - x) + Math.abs(j / width - y);
+        boolean current = (mark[j] >>> 3) == search;
+        if (current && ((mark[j] & CLOSED) != 0 || ng >= g[j]))
+            return;
+
+        if (!current)
+            mark[j] = (search << 3) | SEEN;
+        g[j] = ng;
+        parent[j] = c;
+        heap.push(LongHeap.entry(ng + heuristic(j), j));
+    }
+
+    /**
+     * Walks back from the target, giving each cell on the way its distance
+     * to the target.
+     */
+    private void paint(int[] distances, int target) {
+        int d = 0;
+        int c = target;
+        paintCell(distances, c, d);
+
+        while (parent[c] >= 0) {
+            int p = parent[c];
+            int step;
+            if (p / width == c / width)
+                step = (p < c) ? -1 : 1;
+            else
+                step = (p < c) ? -width : width;
+            while (c != p) {
+                c += step;
+                paintCell(distances, c, ++d);
+            }
+        }
+    }
+
+    private void paintCell(int[] distances, int c, int d) {
+        if (nPainted == painted.length)
+            painted = Arrays.copyOf(painted, 2 * nPainted);
+        painted[nPainted++] = c;
+        distances[c] = d;
+        if ((mark[c] >>> 3) != search)
+            mark[c] = search << 3;
+        mark[c] |= PAINTED;
+    }
+
+    private boolean passable(int x, int y) {
+        return terrain.isPassable(y, x);
+    }
+
+    private int heuristic(int c) {
+        return Math.abs(c % width - goalX) + Math.abs(c / width - goalY);
+    }
+
+    //// Plain JPS
+
+    private int jump(int x, int y, int dir) {
+        if (dir == EAST || dir == WEST)
+            return jumpSideways(x, y, DX[dir]);
+        else
+            return jumpUpDown(x, y, DY[dir]);
+    }
+
+    private int jumpSideways(int x, int y, int dx) {
+        while (true) {
+            x += dx;
+            ++scanned;
+            if (!passable(x, y))
+                return -1;
+            if (x == goalX && y == goalY)
+                return terrain.cell(y, x);
+            if ((passable(x, y - 1) && !passable(x - dx, y - 1)) ||
+                (passable(x, y + 1) && !passable(x - dx, y + 1)))
+                return terrain.cell(y, x);
+        }
+    }
+
+    private int jumpUpDown(int x, int y, int dy) {
+        while (true) {
+            y += dy;
+            ++scanned;
+            if (!passable(x, y))
+                return -1;
+            if (x == goalX && y == goalY)
+                return terrain.cell(y, x);
+            if ((passable(x - 1, y) && !passable(x - 1, y - dy)) ||
+                (passable(x + 1, y) && !passable(x + 1, y - dy)))
+                return terrain.cell(y, x);
+            if (jumpSideways(x, y, 1) >= 0 || jumpSideways(x, y, -1) >= 0)
+                return terrain.cell(y, x);
+        }
+    }
+
+    //// JPS+
+
+    private int jumpPlus(int c, int x, int y, int dir) {
+        ++scanned;
+        int entry = jumps[dir][c];
+        int length = entry >>> 1;
+        boolean jumpPoint = (entry & 1) != 0;
+
+        if (dir == EAST || dir == WEST) {
+            int dx = DX[dir];
+            if (y == goalY && (goalX - x) * dx > 0 && Math.abs(goalX - x) <= length)
+                return goal;
+            return jumpPoint ? c + dx * length : -1;
+        } else {
+            // Going up or down, we stop on the target's row if we can see
+            // the target from there.
+            int dy = DY[dir];
+            if (x >= goalLo && x <= goalHi &&
+                (goalY - y) * dy > 0 && Math.abs(goalY - y) <= length)
+                return terrain.cell(goalY, x);
+            return jumpPoint ? c + dy * length * width : -1;
+        }
+    }
+
+    private boolean isSidewaysJumpPoint(int x, int y, int dx) {
+        return (passable(x, y - 1) && !passable(x - dx, y - 1)) ||
+            (passable(x, y + 1) && !passable(x - dx, y + 1));
+    }
+
+    private char[][] computeJumps() {
+        char[][] t = new char[4][terrain.getSize()];
+
+        // Sideways lines first, as the up and down ones depend on them:
+        // each cell takes after its neighbour in the direction of the
+        // line.
+        for (int y = 0; y < height; ++y) {
+            for (int x = width - 1; x >= 0; --x)
+                t[EAST][terrain.cell(y, x)] = lineEntry(t[EAST], x + 1, y,
+                                                       isSidewaysJumpPoint(x + 1, y, 1));
+            for (int x = 0; x < width; ++x)
+                t[WEST][terrain.cell(y, x)] = lineEntry(t[WEST], x - 1, y,
+                                                       isSidewaysJumpPoint(x - 1, y, -1));
+        }
+
+        for (int x = 0; x < width; ++x) {
+            for (int y = height - 1; y >= 0; --y)
+                t[SOUTH][terrain.cell(y, x)] = lineEntry(t[SOUTH], x, y + 1,
+                                                        isUpDownJumpPoint(t, x, y + 1, 1));
+            for (int y = 0; y < height; ++y)
+                t[NORTH][terrain.cell(y, x)] = lineEntry(t[NORTH], x, y - 1,
+                                                        isUpDownJumpPoint(t, x, y - 1, -1));
+        }
+
+        return t;
+    }
+
+    /**
+     * @return the entry of a cell whose neighbour along the line is
+     *         (<code>x</code>, <code>y</code>)
+     */
+    private char lineEntry(char[] line, int x, int y, boolean jumpPoint) {
+        if (!passable(x, y))
+            return 0;
+        if (jumpPoint)
+            return (char) ((1 << 1) | 1);
+        char next = line[terrain.cell(y, x)];
+        return (char) ((((next >>> 1) + 1) << 1) | (next & 1));
+    }
+
+    private boolean isUpDownJumpPoint(char[][] t, int x, int y, int dy) {
+        if (!passable(x, y))
+            return false;
+        if ((passable(x - 1, y) && !passable(x - 1, y - dy)) ||
+            (passable(x + 1, y) && !passable(x + 1, y - dy)))
+            return true;
+        int c = terrain.cell(y, x);
+        return (t[EAST][c] & 1) != 0 || (t[WEST][c] & 1) != 0;
+    }
+}
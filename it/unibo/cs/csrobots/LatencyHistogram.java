@@ -0,0 +1,126 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size histogram of durations (in nanoseconds), in the spirit of
+ * HdrHistogram.
+ * <p>
+ * Values below 128 get a bucket each; above that each power of two is
+ * split into 64 linear buckets, so any recorded value is known within
+ * 1/64th (about 1.5%) of its magnitude. Recording is a couple of shifts
+ * and an array increment: no allocation, no locking. Not thread safe.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    /** Enough buckets for any non-negative long */
+    private static final int BUCKET_COUNT =
+        SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+    private long totalValue = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    private static int indexFor(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return (SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF +
+                (int) ((value >>> shift) - SUB_BUCKET_HALF));
+    }
+
+    /**
+     * @return the largest value that falls in bucket <code>index</code>
+     */
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        counts[indexFor(nanos)]++;
+        totalCount++;
+        totalValue += nanos;
+        if (nanos < min)
+            min = nanos;
+        if (nanos > max)
+            max = nanos;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0.0 : ((double) totalValue) / totalCount;
+    }
+
+    /**
+     * @return the value below which <code>percentile</code> percent of the
+     * recorded values fall (within the histogram precision)
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+        if (rank < 1)
+            rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highestValueAt(i), max);
+        }
+        return max;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalValue = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of longs, growing as needed.
+ * <p>
+ * The searches all push (key << 32 | cell) pairs, with both halves
+ * non-negative, so the smallest key comes out first, ties going to the
+ * smallest cell. <code>entry</code>, <code>key</code> and
+ * <code>cell</code> do the packing.
+ */
+class LongHeap {
+    private long[] heap;
+    private int size = 0;
+
+    LongHeap(int capacity) {
+        heap = new long[Math.max(capacity, 1)];
+    }
+
+    static long entry(int key, int cell) {
+        return ((long) key << 32) | cell;
+    }
+
+    static int key(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    static int cell(long entry) {
+        return (int) entry;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /** @return the smallest, which must be there */
+    long peek() {
+        return heap[0];
+    }
+
+    void push(long v) {
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, 2 * size);
+        int i = size++;
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (heap[up] <= v)
+                break;
+            heap[i] = heap[up];
+            i = up;
+        }
+        heap[i] = v;
+    }
+
+    /** Takes out the smallest, which must be there */
+    long pop() {
+        long top = heap[0];
+        long v = heap[--size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && heap[child + 1] < heap[child])
+                ++child;
+            if (v <= heap[child])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = v;
+        return top;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A tiny read-only HTTP endpoint exposing the latest server snapshot:
+ * <ul>
+ * <li><tt>/metrics</tt> in the Prometheus text format;
+ * <li><tt>/metrics.json</tt> as a JSON object.
+ * </ul>
+ * Requests are served from a thread of their own and only ever look at
+ * the (immutable) snapshot last published by the turn loop.
+ */
+public class MetricsServer {
+    private static final Charset charset = Charset.forName("UTF-8");
+
+    private final BaseServer server;
+    private final HttpServer http;
+
+    public MetricsServer(BaseServer server, String address, int port)
+        throws IOException
+    {
+        this.server = server;
+
+        http = HttpServer.create(new InetSocketAddress(address, port), 0);
+        http.createContext("/metrics", new HttpHandler()
+            {
+                public void handle(HttpExchange exchange) throws IOException {
+                    String path = exchange.getRequestURI().getPath();
+                    if (path.equals("/metrics"))
+                        reply(exchange, "text/plain; version=0.0.4", toPrometheus());
+                    else if (path.equals("/metrics.json"))
+                        reply(exchange, "application/json", toJson());
+                    else
+                        reply(exchange, 404, "text/plain", "not found\n");
+                }
+            });
+    }
+
+    public void start() {
+        http.start();
+    }
+
+    public void stop() {
+        http.stop(0);
+    }
+
+    private static void reply(HttpExchange exchange, String type, String body)
+        throws IOException
+    {
+        reply(exchange, 200, type, body);
+    }
+
+    private static void reply(HttpExchange exchange, int status,
+                              String type, String body)
+        throws IOException
+    {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            status = 405;
+            body = "";
+        }
+
+        byte[] bytes = body.getBytes(charset);
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private String toPrometheus() {
+        MetricsSnapshot s = server.getMetricsSnapshot();
+        StringBuilder sb = new StringBuilder();
+
+        if (s == null)
+            return "# no turn played yet\n";
+
+        sb.append("# TYPE csrobots_turns_total counter\n");
+        sb.append("csrobots_turns_total ").append(s.getTurnCount()).append('\n');
+        sb.append("# TYPE csrobots_seconds_since_last_turn gauge\n");
+        sb.append("csrobots_seconds_since_last_turn ")
+            .append((System.currentTimeMillis() - s.getTimestamp()) / 1000.0).append('\n');
+        sb.append("# TYPE csrobots_game_over gauge\n");
+        sb.append("csrobots_game_over ").append(s.isGameOver() ? 1 : 0).append('\n');
+        sb.append("# TYPE csrobots_robots gauge\n");
+        sb.append("csrobots_robots{state=\"alive\"} ").append(s.getLiveRobots()).append('\n');
+        sb.append("csrobots_robots{state=\"dead\"} ").append(s.getDeadRobots()).append('\n');
+        sb.append("# TYPE csrobots_packets_remaining gauge\n");
+        sb.append("csrobots_packets_remaining ").append(s.getPacketsRemaining()).append('\n');
+
+        sb.append("# TYPE csrobots_client_bytes_in_total counter\n");
+        for (MetricsSnapshot.ClientMetrics c : s.getClients())
+            sb.append("csrobots_client_bytes_in_total{robot=\"").append(c.getId())
+                .append("\"} ").append(c.getBytesIn()).append('\n');
+        sb.append("# TYPE csrobots_client_bytes_out_total counter\n");
+        for (MetricsSnapshot.ClientMetrics c : s.getClients())
+            sb.append("csrobots_client_bytes_out_total{robot=\"").append(c.getId())
+                .append("\"} ").append(c.getBytesOut()).append('\n');
+        sb.append("# TYPE csrobots_client_parse_failures_total counter\n");
+        for (MetricsSnapshot.ClientMetrics c : s.getClients())
+            sb.append("csrobots_client_parse_failures_total{robot=\"").append(c.getId())
+                .append("\"} ").append(c.getParseFailures()).append('\n');
+        sb.append("# TYPE csrobots_client_score gauge\n");
+        for (MetricsSnapshot.ClientMetrics c : s.getClients())
+            sb.append("csrobots_client_score{robot=\"").append(c.getId())
+                .append("\"} ").append(c.getScore()).append('\n');
+
+        sb.append("# TYPE csrobots_latency_seconds summary\n");
+        for (MetricsSnapshot.PhaseMetrics p : s.getPhases()) {
+            appendQuantile(sb, p.getName(), "0.5", p.getP50());
+            appendQuantile(sb, p.getName(), "0.99", p.getP99());
+            appendQuantile(sb, p.getName(), "1", p.getMax());
+            sb.append("csrobots_latency_seconds_count{phase=\"").append(p.getName())
+                .append("\"} ").append(p.getCount()).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    private static void appendQuantile(StringBuilder sb, String phase,
+                                       String quantile, long nanos) {
+        sb.append("csrobots_latency_seconds{phase=\"").append(phase)
+            .append("\",quantile=\"").append(quantile).append("\"} ")
+            .append(nanos / 1e9).append('\n');
+    }
+
+    private String toJson() {
+        MetricsSnapshot s = server.getMetricsSnapshot();
+        StringBuilder sb = new StringBuilder();
+
+        if (s == null)
+            return "{}\n";
+
+        sb.append("{\"turns\":").append(s.getTurnCount())
+            .append(",\"timestamp\":").append(s.getTimestamp())
+            .append(",\"gameOver\":").append(s.isGameOver())
+            .append(",\"liveRobots\":").append(s.getLiveRobots())
+            .append(",\"deadRobots\":").append(s.getDeadRobots())
+            .append(",\"packetsRemaining\":").append(s.getPacketsRemaining())
+            .append(",\"clients\":[");
+
+        boolean first = true;
+        for (MetricsSnapshot.ClientMetrics c : s.getClients()) {
+            if (!first)
+                sb.append(',');
+            first = false;
+            sb.append("{\"robot\":").append(c.getId())
+                .append(",\"alive\":").append(c.isAlive())
+                .append(",\"score\":").append(c.getScore())
+                .append(",\"bytesIn\":").append(c.getBytesIn())
+                .append(",\"bytesOut\":").append(c.getBytesOut())
+                .append(",\"parseFailures\":").append(c.getParseFailures())
+                .append('}');
+        }
+
+        sb.append("],\"latencyNanos\":{");
+        first = true;
+        for (MetricsSnapshot.PhaseMetrics p : s.getPhases()) {
+            if (!first)
+                sb.append(',');
+            first = false;
+            sb.append('"').append(p.getName()).append("\":{")
+                .append("\"count\":").append(p.getCount())
+                .append(",\"p50\":").append(p.getP50())
+                .append(",\"p99\":").append(p.getP99())
+                .append(",\"max\":").append(p.getMax())
+                .append('}');
+        }
+        sb.append("}}\n");
+
+        return sb.toString();
+    }
+}
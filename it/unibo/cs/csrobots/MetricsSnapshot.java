@@ -0,0 +1,123 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable picture of the server state, published by the turn loop
+ * and read by whoever is interested (e.g. <code>MetricsServer</code>)
+ * without ever touching the game state itself.
+ */
+public class MetricsSnapshot {
+    public static class ClientMetrics {
+        private final int id;
+        private final boolean alive;
+        private final int score;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long parseFailures;
+
+        public ClientMetrics(int id, boolean alive, int score,
+                             long bytesIn, long bytesOut, long parseFailures) {
+            this.id = id;
+            this.alive = alive;
+            this.score = score;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.parseFailures = parseFailures;
+        }
+
+        public int getId() { return id; }
+        public boolean isAlive() { return alive; }
+        public int getScore() { return score; }
+        public long getBytesIn() { return bytesIn; }
+        public long getBytesOut() { return bytesOut; }
+        public long getParseFailures() { return parseFailures; }
+    }
+
+    public static class PhaseMetrics {
+        private final String name;
+        private final long count;
+        private final long p50;
+        private final long p99;
+        private final long max;
+
+        public PhaseMetrics(String name, LatencyHistogram h) {
+            this.name = name;
+            this.count = h.getCount();
+            this.p50 = h.getValueAtPercentile(50.0);
+            this.p99 = h.getValueAtPercentile(99.0);
+            this.max = h.getMax();
+        }
+
+        public String getName() { return name; }
+        public long getCount() { return count; }
+        /** All latencies are in nanoseconds */
+        public long getP50() { return p50; }
+        public long getP99() { return p99; }
+        public long getMax() { return max; }
+    }
+
+    private final int turnCount;
+    private final long timestamp;
+    private final boolean gameOver;
+    private final int packetsRemaining;
+    private final List<ClientMetrics> clients;
+    private final List<PhaseMetrics> phases;
+
+    public MetricsSnapshot(int turnCount, long timestamp, boolean gameOver,
+                           int packetsRemaining,
+                           List<ClientMetrics> clients,
+                           List<PhaseMetrics> phases) {
+        this.turnCount = turnCount;
+        this.timestamp = timestamp;
+        this.gameOver = gameOver;
+        this.packetsRemaining = packetsRemaining;
+        this.clients = Collections.unmodifiableList(clients);
+        this.phases = Collections.unmodifiableList(phases);
+    }
+
+    public int getTurnCount() { return turnCount; }
+
+    /** When this snapshot was taken (milliseconds since the epoch) */
+    public long getTimestamp() { return timestamp; }
+
+    public boolean isGameOver() { return gameOver; }
+
+    public int getPacketsRemaining() { return packetsRemaining; }
+
+    public List<ClientMetrics> getClients() { return clients; }
+
+    public List<PhaseMetrics> getPhases() { return phases; }
+
+    public int getLiveRobots() {
+        int n = 0;
+        for (ClientMetrics c : clients)
+            if (c.isAlive())
+                n++;
+        return n;
+    }
+
+    public int getDeadRobots() {
+        return clients.size() - getLiveRobots();
+    }
+}
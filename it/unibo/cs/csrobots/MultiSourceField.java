@@ -0,0 +1,280 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * The distance from each cell to the nearest of a set of sources (the
+ * bases, say, or where the packets we carry are headed), and which source
+ * that is.
+ * <p>
+ * The set changes a little at a time, and so does the field:
+ * <ul>
+ * <li>A new source only takes over the cells it is now the nearest to,
+ *     spreading out from it for as long as it does.
+ * <li>The cells that relied on a source that's gone are exactly those
+ *     labelled with it, and they lie around it. They are filled in again
+ *     from the cells around them, as in <code>DynamicPlanner</code>.
+ * </ul>
+ * Ties go to the source with the smallest cell index, so the answer
+ * doesn't depend on the order the sources came and went in. Sources are
+ * counted, so the same cell can be added more than once. The first full
+ * fill is put off until the first question.
+ */
+public class MultiSourceField {
+    private final Terrain terrain;
+    private final int width, size, infinity;
+
+    /** The distance to the nearest source, and the source, or -1 */
+    private final int[] distances;
+    private final int[] labels;
+
+    /** How many times each cell was added as a source, and how many are */
+    private final int[] counts;
+    private int sources = 0;
+
+    /** Set while the field hasn't been filled in at all */
+    private boolean dirty = true;
+
+    /** Scratch: a queue, and a heap of (distance, cell) entries */
+    private final int[] queue;
+    private final LongHeap heap = new LongHeap(64);
+
+    public MultiSourceField(Terrain terrain) {
+        this.terrain = terrain;
+        width = terrain.getWidth();
+        size = terrain.getSize();
+        infinity = terrain.getInfinity();
+        distances = new int[size];
+        labels = new int[size];
+        counts = new int[size];
+        queue = new int[size];
+    }
+
+    public void add(int source) {
+        if (counts[source]++ > 0)
+            return;
+        ++sources;
+        if (!dirty)
+            spread(source);
+    }
+
+    public void remove(int source) {
+        if (counts[source] == 0 || --counts[source] > 0)
+            return;
+        --sources;
+        if (!dirty)
+            withdraw(source);
+    }
+
+    public boolean isEmpty() {
+        return sources == 0;
+    }
+
+    /** @return the source nearest to <code>cell</code>, or -1 if none can be reached */
+    public int nearest(int cell) {
+        if (dirty)
+            rebuild();
+        return labels[cell];
+    }
+
+    /** @return the distance to the nearest source, or infinity */
+    public int distance(int cell) {
+        if (dirty)
+            rebuild();
+        return distances[cell];
+    }
+
+    /** Is (d, l) better than what n has now? */
+    private boolean better(int d, int l, int n) {
+        return d < distances[n] || (d == distances[n] && l < labels[n]);
+    }
+
+    private void rebuild() {
+        dirty = false;
+        Arrays.fill(distances, infinity);
+        Arrays.fill(labels, -1);
+
+        int tail = 0;
+        for (int s = 0; s < size && tail < sources; ++s) {
+            if (counts[s] == 0 || !terrain.isPassable(s))
+                continue;
+            distances[s] = 0;
+            labels[s] = s;
+            queue[tail++] = s;
+        }
+
+        // Breadth first, so a cell only ever gets a better label from
+        // cells at the same distance as those that got there first; no
+        // need to queue it again.
+        int head = 0;
+        while (head < tail) {
+            int c = queue[head++];
+            int d = distances[c] + 1, l = labels[c];
+            int x = c % width;
+            if (c + width < size)
+                tail = relabel(c + width, d, l, tail);
+            if (c >= width)
+                tail = relabel(c - width, d, l, tail);
+            if (x + 1 < width)
+                tail = relabel(c + 1, d, l, tail);
+            if (x > 0)
+                tail = relabel(c - 1, d, l, tail);
+        }
+    }
+
+    private int relabel(int n, int d, int l, int tail) {
+        if (!terrain.isPassable(n))
+            return tail;
+        if (d < distances[n]) {
+            distances[n] = d;
+            labels[n] = l;
+            queue[tail++] = n;
+        } else if (d == distances[n] && l < labels[n]) {
+            labels[n] = l;
+        }
+        return tail;
+    }
+
+    /**
+     * Lets a new source take over the cells it's now the nearest to.
+     */
+    private void spread(int s) {
+        if (!terrain.isPassable(s) || !better(0, s, s))
+            return;
+
+        distances[s] = 0;
+        labels[s] = s;
+        int head = 0, tail = 0;
+        queue[tail++] = s;
+        while (head < tail) {
+            int c = queue[head++];
+            int d = distances[c] + 1;
+            int x = c % width;
+            if (c + width < size)
+                tail = takeOver(c + width, d, s, tail);
+            if (c >= width)
+                tail = takeOver(c - width, d, s, tail);
+            if (x + 1 < width)
+                tail = takeOver(c + 1, d, s, tail);
+            if (x > 0)
+                tail = takeOver(c - 1, d, s, tail);
+        }
+    }
+
+    private int takeOver(int n, int d, int s, int tail) {
+        if (terrain.isPassable(n) && labels[n] != s && better(d, s, n)) {
+            distances[n] = d;
+            labels[n] = s;
+            queue[tail++] = n;
+        }
+        return tail;
+    }
+
+    /**
+     * Fills in again the cells that were nearest to a source that's gone.
+     */
+    private void withdraw(int s) {
+        if (!terrain.isPassable(s) || labels[s] != s)
+            return;
+
+        // Everything labelled s can be reached from s through cells
+        // labelled s (the way there is as short as it gets, and nothing
+        // along it can be nearer to another source).
+        int head = 0, tail = 0;
+        queue[tail++] = s;
+        labels[s] = -2;
+        while (head < tail) {
+            int c = queue[head++];
+            int x = c % width;
+            if (c + width < size && labels[c + width] == s)
+                labels[queue[tail++] = c + width] = -2;
+            if (c >= width && labels[c - width] == s)
+                labels[queue[tail++] = c - width] = -2;
+            if (x + 1 < width && labels[c + 1] == s)
+                labels[queue[tail++] = c + 1] = -2;
+            if (x > 0 && labels[c - 1] == s)
+                labels[queue[tail++] = c - 1] = -2;
+        }
+        int affected = tail;
+        for (int i = 0; i < affected; ++i)
+            distances[queue[i]] = infinity;
+
+        // Start over from the best of their neighbours that kept their
+        // source. These are all over the place, hence the heap.
+        heap.clear();
+        for (int i = 0; i < affected; ++i) {
+            int c = queue[i];
+            labels[c] = -1;
+            int x = c % width;
+            if (c + width < size)
+                offer(c + width, c);
+            if (c >= width)
+                offer(c - width, c);
+            if (x + 1 < width)
+                offer(c + 1, c);
+            if (x > 0)
+                offer(c - 1, c);
+            if (labels[c] >= 0)
+                heap.push(LongHeap.entry(distances[c], c));
+        }
+
+        while (!heap.isEmpty()) {
+            long top = heap.pop();
+            int d = LongHeap.key(top);
+            int c = LongHeap.cell(top);
+            if (d > distances[c])
+                continue;
+
+            ++d;
+            int l = labels[c];
+            int x = c % width;
+            if (c + width < size)
+                refill(c + width, d, l);
+            if (c >= width)
+                refill(c - width, d, l);
+            if (x + 1 < width)
+                refill(c + 1, d, l);
+            if (x > 0)
+                refill(c - 1, d, l);
+        }
+    }
+
+    /**
+     * Lets <code>from</code> bid for <code>c</code>, if it has a source.
+     * Those that lost theirs may only have a provisional one by now, which
+     * is no harm: the heap sorts it out.
+     */
+    private void offer(int from, int c) {
+        if (labels[from] >= 0 && better(distances[from] + 1, labels[from], c)) {
+            distances[c] = distances[from] + 1;
+            labels[c] = labels[from];
+        }
+    }
+
+    private void refill(int n, int d, int l) {
+        if (terrain.isPassable(n) && better(d, l, n)) {
+            distances[n] = d;
+            labels[n] = l;
+            heap.push(LongHeap.entry(d, n));
+        }
+    }
+}
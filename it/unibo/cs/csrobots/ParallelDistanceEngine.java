@@ -0,0 +1,199 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A level synchronous breadth first fill for very large boards.
+ * <p>
+ * Each level's frontier is split in chunks that are expanded in parallel
+ * on a <code>ForkJoinPool</code>. A cell is claimed by setting its bit in
+ * a shared bitmap with a compare-and-set, so each cell gets its distance
+ * (and a place in the next frontier) exactly once. A cell whose distance
+ * is already there is known to be taken, which spares most of the atomic
+ * operations. Workers collect the
+ * cells they claim in a small local buffer and append it to the next
+ * frontier in one go.
+ * <p>
+ * Coordinating threads is not free: small boards, small frontiers, and a
+ * pool or a machine with a single thread are all left to the plain serial
+ * fill.
+ */
+public class ParallelDistanceEngine implements DistanceEngine {
+    /** Boards smaller than this are not worth the trouble */
+    private static final int MIN_PARALLEL_SIZE = 1 << 18;
+
+    /** Neither are frontiers smaller than this */
+    private static final int MIN_PARALLEL_FRONTIER = 4096;
+
+    /** Frontier cells expanded by a single task */
+    private static final int CHUNK = 1024;
+
+    /** Initial capacity of the frontier buffers; they grow as needed */
+    private static final int INITIAL_FRONTIER = 1 << 14;
+
+    private final Terrain terrain;
+    private final ForkJoinPool pool;
+    private final BfsDistanceEngine serial;
+    private final boolean useSerial;
+
+    private final AtomicLongArray claimed;
+    private int[] frontier;
+    private int[] next;
+    private final AtomicInteger nextSize = new AtomicInteger();
+
+    public ParallelDistanceEngine(Terrain terrain, ForkJoinPool pool) {
+        this.terrain = terrain;
+        this.pool = pool;
+        this.serial = new BfsDistanceEngine(terrain);
+        useSerial = terrain.getSize() < MIN_PARALLEL_SIZE
+            || pool.getParallelism() < 2
+            || Runtime.getRuntime().availableProcessors() < 2;
+
+        if (useSerial) {
+            claimed = null;
+        } else {
+            claimed = new AtomicLongArray((terrain.getSize() + 63) >>> 6);
+            frontier = new int[INITIAL_FRONTIER];
+            next = new int[INITIAL_FRONTIER];
+        }
+    }
+
+    public ParallelDistanceEngine(Terrain terrain, int threads) {
+        this(terrain, new ForkJoinPool(threads));
+    }
+
+    public int computeDistances(int[] distances, int origin) {
+        if (useSerial)
+            return serial.computeDistances(distances, origin);
+
+        Arrays.fill(distances, 0, terrain.getSize(), terrain.getInfinity());
+        for (int i = 0; i < claimed.length(); ++i)
+            claimed.set(i, 0);
+
+        claim(origin);
+        distances[origin] = 0;
+        frontier[0] = origin;
+        int size = 1;
+        int reached = 1;
+
+        for (int level = 1; size > 0; ++level) {
+            // Each frontier cell brings in four new ones at most.
+            int bound = (int) Math.min(4L * size, terrain.getSize());
+            if (next.length < bound)
+                next = new int[Math.max(bound, 2 * next.length)];
+            nextSize.set(0);
+
+            if (size < MIN_PARALLEL_FRONTIER)
+                new Expansion(distances, level, 0, size).compute();
+            else
+                pool.invoke(new Expansion(distances, level, 0, size));
+
+            int[] tmp = frontier;
+            frontier = next;
+            next = tmp;
+            size = nextSize.get();
+            reached += size;
+        }
+
+        return reached;
+    }
+
+    /**
+     * @return true if we got to the cell first
+     */
+    private boolean claim(int cell) {
+        int word = cell >>> 6;
+        long bit = 1L << cell;
+        while (true) {
+            long old = claimed.get(word);
+            if ((old & bit) != 0)
+                return false;
+            if (claimed.compareAndSet(word, old, old | bit))
+                return true;
+        }
+    }
+
+    private class Expansion extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] distances;
+        private final int level;
+        private final int lo, hi;
+
+        Expansion(int[] distances, int level, int lo, int hi) {
+            this.distances = distances;
+            this.level = level;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo > CHUNK) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Expansion(distances, level, lo, mid),
+                          new Expansion(distances, level, mid, hi));
+                return;
+            }
+
+            final int width = terrain.getWidth();
+            final int size = terrain.getSize();
+            final int infinity = terrain.getInfinity();
+            int[] buffer = new int[4 * (hi - lo)];
+            int count = 0;
+
+            for (int i = lo; i < hi; ++i) {
+                int c = frontier[i];
+                int x = c % width;
+
+                int n = c + width;
+                if (n < size && distances[n] == infinity && terrain.isPassable(n) && claim(n)) {
+                    distances[n] = level;
+                    buffer[count++] = n;
+                }
+                n = c - width;
+                if (n >= 0 && distances[n] == infinity && terrain.isPassable(n) && claim(n)) {
+                    distances[n] = level;
+                    buffer[count++] = n;
+                }
+                n = c + 1;
+                if (x + 1 < width && distances[n] == infinity && terrain.isPassable(n) && claim(n)) {
+                    distances[n] = level;
+                    buffer[count++] = n;
+                }
+                n = c - 1;
+                if (x > 0 && distances[n] == infinity && terrain.isPassable(n) && claim(n)) {
+                    distances[n] = level;
+                    buffer[count++] = n;
+                }
+            }
+
+            if (count > 0) {
+                int at = nextSize.getAndAdd(count);
+                System.arraycopy(buffer, 0, next, at, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,785 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A crude benchmark for the path finding code. Loads one or more boards
+ * and, for each of them, times every distance engine from the same set of
+ * (pseudo randomly chosen) origins, checking that they all agree. The
+ * engines are timed both at filling in full distance maps and at finding
+ * out which cells are reachable at all (against the terrain's labels). The path planners are timed at
+ * finding the way from each origin to a target picked from it, and
+ * checked on the cells a robot following their gradient could walk on.
+ * All the planners (those that only find a single path, too) are then
+ * timed again, checking just the length of the path they lead along.
+ * Then a few robots wander about the target, one step per run, and the
+ * distances to the target are kept up to date as they go, both starting
+ * over each time and repairing the changes. Finding the nearest base is
+ * timed both by looking at every one and by keeping a field of the
+ * distances to all of them. Going back to a target whose map the
+ * distance cache kept is timed against filling it in again.
+ * Last, the hierarchical abstraction is built, and its guesses are timed
+ * and compared with the exact distances.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java it.unibo.cs.csrobots.PathBenchmark [-runs N] [-threads N,...]
+ *                                           [-synthetic SIZE] board...
+ * </pre>
+ * The boards are plain (i.e. uncompressed) <tt>.csr</tt> files; the
+ * <tt>.items</tt> are not needed. <tt>-synthetic</tt> adds a randomly
+ * walled square board of the given side, for sizes no real board comes
+ * in. The parallel engine is timed once for each of the given thread
+ * counts.
+ */
+class PathBenchmark {
+    private static final int DEFAULT_RUNS = 20;
+    private static final int WARMUP_RUNS = 5;
+    private static final long SEED = 7919;
+    private static final int[] DEFAULT_THREADS = { 1, 2, 4, 8 };
+
+    /** Share of the synthetic board's cells that are walled off */
+    private static final double SYNTHETIC_WALLS = 0.25;
+
+    /** Side of the clusters of the hierarchical abstraction */
+    private static final int CLUSTER_SIZE = 15;
+
+    /** Robots wandering about the target, and how far from it they start */
+    private static final int WANDERERS = 8;
+    private static final int WANDER_RANGE = 20;
+
+    /** Share of the synthetic board's cells that are taken as bases */
+    private static final double SYNTHETIC_BASES = 0.001;
+
+    /** Cells whose distance is guessed, per origin */
+    private static final int GUESSES = 1000;
+
+    /** The legacy BFS is left out on boards bigger than this */
+    private static final int MAX_LEGACY_SIZE = 1 << 21;
+
+    /** The most the distance cache may take */
+    private static final long MAX_CACHE_BYTES = 256L << 20;
+
+    /**
+     * Something we can time: computes the distances from a cell and returns
+     * a checksum of them.
+     */
+    private interface Task {
+        long run(int origin);
+    }
+
+    /**
+     * The way we used to do it (a LinkedList of Positions over an int[][]),
+     * kept here as a reference point.
+     */
+    private static class LegacyBfs {
+        private final Field field;
+        private final int[][] distances;
+        private final int infinity;
+
+        LegacyBfs(Field field) {
+            this.field = field;
+            distances = new int[field.getHeight()][field.getWidth()];
+            infinity = field.getWidth() * field.getHeight();
+        }
+
+        private void tryVisit(int y, int x, int cost, Queue<Position> q) {
+            if (distances[y][x] == infinity &&
+                field.getType(y, x) != Field.CellType.WATER &&
+                field.getType(y, x) != Field.CellType.WALL) {
+                q.offer(new Position(y, x));
+                distances[y][x] = cost + 1;
+            }
+        }
+
+        long run(Position pos) {
+            for (int i = 0; i < field.getHeight(); i++)
+                Arrays.fill(distances[i], infinity);
+
+            Queue<Position> toVisit = new LinkedList<Position>();
+            toVisit.offer(pos);
+            distances[pos.getY()][pos.getX()] = 0;
+
+            while (toVisit.peek() != null) {
+                Position p = toVisit.poll();
+                int x = p.getX();
+                int y = p.getY();
+                int cost = distances[y][x];
+
+                if (y + 1 < field.getHeight())
+                    tryVisit(y + 1, x, cost, toVisit);
+                if (y - 1 >= 0)
+                    tryVisit(y - 1, x, cost, toVisit);
+                if (x + 1 < field.getWidth())
+                    tryVisit(y, x + 1, cost, toVisit);
+                if (x - 1 >= 0)
+                    tryVisit(y, x - 1, cost, toVisit);
+            }
+
+            long sum = 0;
+            for (int[] row : distances)
+                for (int d : row)
+                    sum += d;
+            return sum;
+        }
+    }
+
+    private static long checksum(int[] distances, int size) {
+        long sum = 0;
+        for (int i = 0; i < size; ++i)
+            sum += distances[i];
+        return sum;
+    }
+
+    /**
+     * Tasks are run one at a time, so they can all share the same
+     * <code>distances</code> (which is a lot of memory on huge boards).
+     */
+    private static Task engineTask(final DistanceEngine engine, final Terrain terrain,
+                                   final int[] distances) {
+        return new Task()
+            {
+                public long run(int origin) {
+                    engine.computeDistances(distances, origin);
+                    return checksum(distances, terrain.getSize());
+                }
+            };
+    }
+
+    private static Terrain createSyntheticTerrain(int side) {
+        Random random = new Random(SEED);
+        long[] passable = new long[(side * side + 63) >>> 6];
+        for (int c = 0; c < side * side; ++c)
+            if (random.nextDouble() >= SYNTHETIC_WALLS)
+                passable[c >>> 6] |= 1L << c;
+        return new Terrain(side, side, passable);
+    }
+
+    private static int[] pickOrigins(Terrain terrain, int count) {
+        Random random = new Random(SEED);
+        int[] origins = new int[count];
+        for (int i = 0; i < count; ++i) {
+            int c;
+            do {
+                c = random.nextInt(terrain.getSize());
+            } while (!terrain.isPassable(c));
+            origins[i] = c;
+        }
+        return origins;
+    }
+
+    /**
+     * A target for <code>origin</code>: another passable cell, picked
+     * (pseudo) randomly but always the same for the same origin.
+     */
+    private static int pickTarget(Terrain terrain, int origin) {
+        Random random = new Random(origin);
+        int c;
+        do {
+            c = random.nextInt(terrain.getSize());
+        } while (!terrain.isPassable(c) || c == origin);
+        return c;
+    }
+
+    /**
+     * Sums up the distances of the cells on all the shortest paths from
+     * <code>origin</code>, found by following the gradient down; these are
+     * the only cells a planner must get right.
+     */
+    private static long gradientChecksum(Terrain terrain, int[] distances, int origin,
+                                         int[] queue, boolean[] seen) {
+        final int width = terrain.getWidth();
+        final int size = terrain.getSize();
+        if (distances[origin] == terrain.getInfinity())
+            return -1;
+
+        int head = 0, tail = 0;
+        queue[tail++] = origin;
+        seen[origin] = true;
+        long sum = 0;
+
+        while (head < tail) {
+            int c = queue[head++];
+            int d = distances[c];
+            sum += d;
+            int[] around = { c + width, c - width, c + 1, c - 1 };
+            for (int n : around) {
+                if (n < 0 || n >= size || seen[n] || distances[n] != d - 1)
+                    continue;
+                if ((n == c + 1 || n == c - 1) && n / width != c / width)
+                    continue;
+                seen[n] = true;
+                queue[tail++] = n;
+            }
+        }
+
+        for (int i = 0; i < tail; ++i)
+            seen[queue[i]] = false;
+        return sum;
+    }
+
+    private static Task plannerTask(final PathPlanner planner, final Terrain terrain,
+                                    final int[] distances) {
+        final int[] queue = new int[terrain.getSize()];
+        final boolean[] seen = new boolean[terrain.getSize()];
+        return new Task()
+            {
+                public long run(int origin) {
+                    planner.plan(distances, pickTarget(terrain, origin), origin);
+                    return gradientChecksum(terrain, distances, origin, queue, seen);
+                }
+            };
+    }
+
+    /**
+     * Plans from <code>origin</code> and follows the gradient down to the
+     * target.
+     *
+     * @return the length of the way, or -1 if there's none, or -2 if the
+     *         gradient doesn't lead to the target
+     */
+    private static Task routeTask(final PathPlanner planner, final Terrain terrain,
+                                  final int[] distances) {
+        return new Task()
+            {
+                public long run(int origin) {
+                    int target = pickTarget(terrain, origin);
+                    planner.plan(distances, target, origin);
+
+                    final int width = terrain.getWidth();
+                    int c = origin;
+                    int d = distances[c];
+                    if (d == terrain.getInfinity())
+                        return -1;
+
+                    while (d > 0) {
+                        int x = c % width;
+                        if (c + width < terrain.getSize() && distances[c + width] == d - 1)
+                            c += width;
+                        else if (c >= width && distances[c - width] == d - 1)
+                            c -= width;
+                        else if (x + 1 < width && distances[c + 1] == d - 1)
+                            c += 1;
+                        else if (x > 0 && distances[c - 1] == d - 1)
+                            c -= 1;
+                        else
+                            return -2;
+                        --d;
+                    }
+                    return (c == target) ? distances[origin] : -2;
+                }
+            };
+    }
+
+    /**
+     * A few robots taking random steps around a cell, as obstacles.
+     */
+    private static class Wanderers {
+        private final Terrain terrain;
+        final int[] cells = new int[WANDERERS];
+
+        Wanderers(Terrain terrain, int around) {
+            this.terrain = terrain;
+            Random random = new Random(SEED);
+            int y = terrain.getY(around), x = terrain.getX(around);
+            for (int i = 0; i < WANDERERS; ++i) {
+                int c = around;
+                for (int tries = 0; tries < 100 && c == around; ++tries) {
+                    int ny = y + random.nextInt(2 * WANDER_RANGE + 1) - WANDER_RANGE;
+                    int nx = x + random.nextInt(2 * WANDER_RANGE + 1) - WANDER_RANGE;
+                    if (terrain.isPassable(ny, nx))
+                        c = terrain.cell(ny, nx);
+                }
+                cells[i] = c;
+            }
+        }
+
+        void step(Random random) {
+            for (int i = 0; i < WANDERERS; ++i) {
+                int y = terrain.getY(cells[i]) + random.nextInt(3) - 1;
+                int x = terrain.getX(cells[i]);
+                if (y == terrain.getY(cells[i]))
+                    x += random.nextInt(3) - 1;
+                if (terrain.isPassable(y, x))
+                    cells[i] = terrain.cell(y, x);
+            }
+        }
+    }
+
+    /**
+     * Keeping the distances to a target up to date while robots wander
+     * about it: the first contender starts over each time, the second
+     * repairs what changed.
+     */
+    private static Map<String, Task> createRepairTasks(final Terrain terrain) {
+        LinkedHashMap<String, Task> tasks = new LinkedHashMap<String, Task>();
+        final int target = pickTarget(terrain, 0);
+
+        final DynamicPlanner full = new DynamicPlanner(terrain);
+        final Wanderers fullWanderers = new Wanderers(terrain, target);
+        final int[][] fullDistances = new int[2][terrain.getSize()];
+        tasks.put("rebuild", new Task()
+            {
+                private int flip = 0;
+
+                public long run(int origin) {
+                    fullWanderers.step(new Random(origin));
+                    full.setObstacles(fullWanderers.cells, WANDERERS);
+                    // A different array each time forces a fresh start
+                    flip ^= 1;
+                    full.plan(fullDistances[flip], target, target);
+                    return checksum(fullDistances[flip], terrain.getSize());
+                }
+            });
+
+        final DynamicPlanner repair = new DynamicPlanner(terrain);
+        final Wanderers repairWanderers = new Wanderers(terrain, target);
+        final int[] repairDistances = new int[terrain.getSize()];
+        tasks.put("repair", new Task()
+            {
+                public long run(int origin) {
+                    repairWanderers.step(new Random(origin));
+                    repair.setObstacles(repairWanderers.cells, WANDERERS);
+                    repair.plan(repairDistances, target, target);
+                    return checksum(repairDistances, terrain.getSize());
+                }
+            });
+
+        return tasks;
+    }
+
+    /**
+     * The bases of a board; on synthetic boards, some cells picked at
+     * random.
+     */
+    private static int[] pickBases(Field field, Terrain terrain) {
+        int[] bases = new int[16];
+        int n = 0;
+        Random random = new Random(SEED);
+        for (int c = 0; c < terrain.getSize(); ++c) {
+            boolean base;
+            if (field != null)
+                base = field.getType(terrain.getY(c), terrain.getX(c)) == Field.CellType.BASE;
+            else
+                base = terrain.isPassable(c) && random.nextDouble() < SYNTHETIC_BASES;
+            if (base) {
+                if (n == bases.length)
+                    bases = Arrays.copyOf(bases, 2 * n);
+                bases[n++] = c;
+            }
+        }
+        return Arrays.copyOf(bases, n);
+    }
+
+    /**
+     * Finding the nearest base and how far it is, as the robot does when
+     * choosing its target. On each run the base found is then taken out (as
+     * if emptied), and the one taken out the run before is put back: the
+     * first contender fills in the distances from the origin and looks at
+     * every base, the second keeps a multi-source field up to date.
+     */
+    private static Map<String, Task> createNearestSourceTasks(Field field,
+                                                              final Terrain terrain) {
+        LinkedHashMap<String, Task> tasks = new LinkedHashMap<String, Task>();
+        final int[] bases = pickBases(field, terrain);
+
+        final BfsDistanceEngine bfs = new BfsDistanceEngine(terrain);
+        final int[] distances = new int[terrain.getSize()];
+        final boolean[] gone = new boolean[terrain.getSize()];
+        tasks.put("bfs+scan", new Task()
+            {
+                private int removed = -1;
+
+                public long run(int origin) {
+                    if (removed >= 0)
+                        gone[removed] = false;
+                    bfs.computeDistances(distances, origin);
+                    int best = -1;
+                    for (int b : bases)
+                        if (!gone[b] && distances[b] < terrain.getInfinity() &&
+                            (best < 0 || distances[b] < distances[best]))
+                            best = b;
+                    if (best < 0)
+                        return -1;
+                    gone[best] = true;
+                    removed = best;
+                    return (long) best * terrain.getSize() + distances[best];
+                }
+            });
+
+        final MultiSourceField sources = new MultiSourceField(terrain);
+        for (int b : bases)
+            sources.add(b);
+        tasks.put("field", new Task()
+            {
+                private int removed = -1;
+
+                public long run(int origin) {
+                    if (removed >= 0)
+                        sources.add(removed);
+                    int best = sources.nearest(origin);
+                    if (best < 0)
+                        return -1;
+                    long result = (long) best * terrain.getSize() + sources.distance(origin);
+                    sources.remove(best);
+                    removed = best;
+                    return result;
+                }
+            });
+
+        return tasks;
+    }
+
+    /**
+     * Filling in the map to each origin again, against getting it back from
+     * a <code>DistanceCache</code> that has it (if it fits in
+     * <code>MAX_CACHE_BYTES</code>; if not, the cache fills it in too).
+     */
+    private static Map<String, Task> createCacheTasks(final Terrain terrain, int[] origins) {
+        LinkedHashMap<String, Task> tasks = new LinkedHashMap<String, Task>();
+        final BfsDistanceEngine bfs = new BfsDistanceEngine(terrain);
+        final int[] distances = new int[terrain.getSize()];
+        tasks.put("fill", engineTask(bfs, terrain, distances));
+
+        long bytes = 2L * terrain.getSize() * origins.length;
+        final DistanceCache cache = new DistanceCache(terrain, Math.min(bytes, MAX_CACHE_BYTES));
+        for (int origin : origins)
+            cache.put(origin, distances, bfs.computeDistances(distances, origin));
+        tasks.put("hit", new Task()
+            {
+                public long run(int origin) {
+                    if (!cache.get(origin, distances))
+                        bfs.computeDistances(distances, origin);
+                    return checksum(distances, terrain.getSize());
+                }
+            });
+
+        return tasks;
+    }
+
+    /**
+     * Every planner, including those that only find a single path.
+     */
+    private static Map<String, Task> createRouteTasks(Terrain terrain, PrintStream out) {
+        LinkedHashMap<String, Task> tasks = new LinkedHashMap<String, Task>();
+
+        tasks.put("gradient", routeTask(new GradientPlanner(new BfsDistanceEngine(terrain)),
+                                        terrain, new int[terrain.getSize()]));
+        tasks.put("astar", routeTask(new AStarPlanner(terrain), terrain,
+                                     new int[terrain.getSize()]));
+        tasks.put("jps", routeTask(new JumpPointPlanner(terrain, false), terrain,
+                                   new int[terrain.getSize()]));
+
+        long start = System.nanoTime();
+        JumpPointPlanner jpsPlus = new JumpPointPlanner(terrain, true);
+        out.printf("\t(jps+ tables: %.3f ms)\n", (System.nanoTime() - start) / 1e6);
+        tasks.put("jps+", routeTask(jpsPlus, terrain, new int[terrain.getSize()]));
+
+        return tasks;
+    }
+
+    /**
+     * The single target path contenders. Each planner gets its own
+     * distances, as planners remember what they filled in.
+     */
+    private static Map<String, Task> createPathTasks(Terrain terrain) {
+        LinkedHashMap<String, Task> tasks = new LinkedHashMap<String, Task>();
+
+        tasks.put("gradient", plannerTask(new GradientPlanner(new BfsDistanceEngine(terrain)),
+                                          terrain, new int[terrain.getSize()]));
+        tasks.put("astar", plannerTask(new AStarPlanner(terrain), terrain,
+                                       new int[terrain.getSize()]));
+
+        return tasks;
+    }
+
+    /**
+     * All the distance map contenders for a board, by name. The first one is
+     * the reference the others are checked against. <code>field</code> may
+     * be null (for synthetic boards), in which case there is no legacy
+     * contender.
+     */
+    private static Map<String, Task> createDistanceTasks(final Field field,
+                                                         final Terrain terrain,
+                                                         ForkJoinPool[] pools) {
+        LinkedHashMap<String, Task> tasks = new LinkedHashMap<String, Task>();
+        int[] distances = new int[terrain.getSize()];
+
+        if (field != null && terrain.getSize() <= MAX_LEGACY_SIZE) {
+            final LegacyBfs legacy = new LegacyBfs(field);
+            tasks.put("legacy", new Task()
+                {
+                    public long run(int origin) {
+                        return legacy.run(terrain.getPosition(origin));
+                    }
+                });
+        }
+        tasks.put("bfs", engineTask(new BfsDistanceEngine(terrain), terrain, distances));
+        tasks.put("bitboard", engineTask(new BitboardDistanceEngine(terrain), terrain,
+                                         distances));
+        for (ForkJoinPool pool : pools)
+            tasks.put("parallel-" + pool.getParallelism(),
+                      engineTask(new ParallelDistanceEngine(terrain, pool), terrain,
+                                 distances));
+
+        return tasks;
+    }
+
+    /**
+     * The reachability contenders; these return the number of reachable
+     * cells.
+     */
+    private static Map<String, Task> createReachabilityTasks(final Terrain terrain) {
+        LinkedHashMap<String, Task> tasks = new LinkedHashMap<String, Task>();
+
+        final BfsDistanceEngine bfs = new BfsDistanceEngine(terrain);
+        final int[] distances = new int[terrain.getSize()];
+        tasks.put("bfs", new Task()
+            {
+                public long run(int origin) {
+                    return bfs.computeDistances(distances, origin);
+                }
+            });
+
+        final BitboardDistanceEngine bitboard = new BitboardDistanceEngine(terrain);
+        final long[] mask = new long[bitboard.getMaskLength()];
+        tasks.put("bitboard", new Task()
+            {
+                public long run(int origin) {
+                    return bitboard.computeReachable(mask, origin);
+                }
+            });
+
+        tasks.put("labels", new Task()
+            {
+                public long run(int origin) {
+                    return terrain.getComponentSize(terrain.getComponent(origin));
+                }
+            });
+
+        return tasks;
+    }
+
+    private static void benchmark(String name, Field field, Terrain terrain, int runs,
+                                  ForkJoinPool[] pools, PrintStream out) {
+        int[] origins = pickOrigins(terrain, runs);
+
+        out.printf("%s (%dx%d, %d components)\n", name, terrain.getWidth(),
+                   terrain.getHeight(), terrain.getComponentCount());
+
+        out.println("    distances");
+        compare(createDistanceTasks(field, terrain, pools), origins, out);
+        out.println("    reachability");
+        compare(createReachabilityTasks(terrain), origins, out);
+        out.println("    path");
+        compare(createPathTasks(terrain), origins, out);
+        out.println("    route");
+        compare(createRouteTasks(terrain, out), origins, out);
+        out.println("    repair");
+        compare(createRepairTasks(terrain), origins, out);
+        out.println("    nearest source");
+        compare(createNearestSourceTasks(field, terrain), origins, out);
+        out.println("    distance cache");
+        compare(createCacheTasks(terrain, origins), origins, out);
+        out.println("    abstraction");
+        describeClusterGraph(terrain, origins, out);
+    }
+
+    /**
+     * Builds a <code>ClusterGraph</code>, then for each origin times a search
+     * plus a few guesses against a full fill, and reports how far off the
+     * guesses were.
+     */
+    private static void describeClusterGraph(Terrain terrain, int[] origins,
+                                             PrintStream out) {
+        long start = System.nanoTime();
+        ClusterGraph graph = new ClusterGraph(terrain, CLUSTER_SIZE);
+        double buildMs = (System.nanoTime() - start) / 1e6;
+
+        out.printf("\t%-12s%10.3f ms%8d nodes%8d KB (vs %d KB)\n", "build", buildMs,
+                   graph.getNodeCount(), graph.getFootprint() / 1024,
+                   2L * 4 * terrain.getSize() / 1024);
+
+        BfsDistanceEngine bfs = new BfsDistanceEngine(terrain);
+        int[] distances = new int[terrain.getSize()];
+        int[][] cells = new int[origins.length][];
+        for (int i = 0; i < origins.length; ++i) {
+            Random random = new Random(origins[i]);
+            cells[i] = new int[GUESSES];
+            for (int j = 0; j < GUESSES; ++j)
+                cells[i][j] = random.nextInt(terrain.getSize());
+            // The player asks in board order
+            Arrays.sort(cells[i]);
+        }
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+            int o = origins[i % origins.length];
+            bfs.computeDistances(distances, o);
+            graph.search(o);
+            for (int c : cells[i % origins.length])
+                sink += distances[c] + graph.approximateDistance(c);
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < origins.length; ++i) {
+            bfs.computeDistances(distances, origins[i]);
+            for (int c : cells[i])
+                sink += distances[c];
+        }
+        double bfsMs = (System.nanoTime() - start) / 1e6 / origins.length;
+
+        start = System.nanoTime();
+        for (int i = 0; i < origins.length; ++i)
+            graph.search(origins[i]);
+        double searchMs = (System.nanoTime() - start) / 1e6 / origins.length;
+
+        start = System.nanoTime();
+        for (int i = 0; i < origins.length; ++i) {
+            graph.search(origins[i]);
+            for (int c : cells[i])
+                sink += graph.approximateDistance(c);
+        }
+        double hpaMs = (System.nanoTime() - start) / 1e6 / origins.length;
+
+        // How good were the guesses?
+        long exact = 0, guessed = 0;
+        int compared = 0, missed = 0, under = 0;
+        for (int i = 0; i < origins.length; ++i) {
+            bfs.computeDistances(distances, origins[i]);
+            graph.search(origins[i]);
+            for (int c : cells[i]) {
+                int d = distances[c], a = graph.approximateDistance(c);
+                if (d == terrain.getInfinity())
+                    continue;
+                if (a == terrain.getInfinity()) {
+                    ++missed;
+                } else {
+                    exact += d;
+                    guessed += a;
+                    ++compared;
+                    if (a < d)
+                        ++under;
+                }
+            }
+        }
+
+        out.printf("\t%-12s%10.3f ms/op\n", "bfs", bfsMs);
+        out.printf("\t%-12s%10.3f ms/op%8.1fx\n", "hpa search", searchMs, bfsMs / searchMs);
+        out.printf("\t%-12s%10.3f ms/op%8.1fx\n", "hpa", hpaMs, bfsMs / hpaMs);
+        out.printf("\t%-12s%9.1f%% over on %d cells, %d missed%s\n", "error",
+                   (compared == 0) ? 0.0 : 100.0 * (guessed - exact) / exact,
+                   compared, missed, (under > 0 || sink == 42) ? "  UNDERESTIMATE" : "");
+    }
+
+    private static void compare(Map<String, Task> tasks, int[] origins, PrintStream out) {
+        long[] expected = null;
+        double reference = 0.0;
+
+        for (Map.Entry<String, Task> e : tasks.entrySet()) {
+            Task task = e.getValue();
+
+            for (int i = 0; i < WARMUP_RUNS; ++i)
+                task.run(origins[i % origins.length]);
+
+            long[] sums = new long[origins.length];
+            long start = System.nanoTime();
+            for (int i = 0; i < origins.length; ++i)
+                sums[i] = task.run(origins[i]);
+            double ms = (System.nanoTime() - start) / 1e6 / origins.length;
+
+            String verdict = "";
+            if (expected == null) {
+                expected = sums;
+                reference = ms;
+            } else if (!Arrays.equals(expected, sums))
+                verdict = "  MISMATCH";
+
+            out.printf("\t%-12s%10.3f ms/op%8.1fx%s\n", e.getKey(), ms,
+                       reference / ms, verdict);
+        }
+    }
+
+    private static int[] parseThreads(String list) {
+        String[] items = list.split(",");
+        int[] threads = new int[items.length];
+        for (int i = 0; i < items.length; ++i)
+            threads[i] = Integer.parseInt(items[i].trim());
+        return threads;
+    }
+
+    public static void main(String[] args) {
+        int runs = DEFAULT_RUNS;
+        int[] threads = DEFAULT_THREADS;
+        LinkedList<Integer> synthetic = new LinkedList<Integer>();
+        LinkedList<String> boards = new LinkedList<String>();
+
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-runs") && i + 1 < args.length)
+                runs = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-threads") && i + 1 < args.length)
+                threads = parseThreads(args[++i]);
+            else if (args[i].equals("-synthetic") && i + 1 < args.length)
+                synthetic.add(Integer.parseInt(args[++i]));
+            else
+                boards.add(args[i]);
+        }
+
+        if (boards.isEmpty() && synthetic.isEmpty()) {
+            System.err.println("usage: java it.unibo.cs.csrobots.PathBenchmark [-runs N] "
+                               + "[-threads N,...] [-synthetic SIZE] board...");
+            System.exit(2);
+        }
+
+        System.out.printf("%d processor(s) available\n",
+                          Runtime.getRuntime().availableProcessors());
+
+        ForkJoinPool[] pools = new ForkJoinPool[threads.length];
+        for (int i = 0; i < threads.length; ++i)
+            pools[i] = new ForkJoinPool(threads[i]);
+
+        for (String board : boards) {
+            try {
+                Field field = GameConfig.loadField(board);
+                benchmark(board, field, new Terrain(field), runs, pools, System.out);
+            } catch (Exception e) {
+                System.err.printf("error: %s: %s\n", board, e.getMessage());
+            }
+        }
+
+        for (int side : synthetic)
+            benchmark("synthetic", null, createSyntheticTerrain(side), runs, pools,
+                      System.out);
+
+        for (ForkJoinPool pool : pools)
+            pool.shutdown();
+    }
+}
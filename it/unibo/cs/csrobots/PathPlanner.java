@@ -0,0 +1,55 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+/**
+ * Something that fills in the distances to a target well enough for a
+ * robot at <code>origin</code> to get there by always stepping to a
+ * neighbour whose distance is one less than its own.
+ * <p>
+ * Unlike a <code>DistanceEngine</code>, a planner need not fill in the
+ * whole board: only the cells lying on some shortest path from the origin
+ * to the target are guaranteed to be <i>settled</i>, i.e. to hold their
+ * exact distance. The cells it never got to hold
+ * <code>Terrain.getInfinity()</code>; the others hold the length of
+ * <i>some</i> path to the target, which is never shorter than the real
+ * distance, so following the gradient from a settled cell is always safe.
+ * <p>
+ * Planners keep state between calls, so a planner must always be handed
+ * the same <code>distances</code> array, and must not be shared between
+ * threads.
+ */
+public interface PathPlanner {
+    /**
+     * @param distances where to store the distances to the target,
+     *        indexed by cell
+     * @param target the cell we want to get to
+     * @param origin the cell we start from
+     * @return the number of cells that were looked at
+     */
+    int plan(int[] distances, int target, int origin);
+
+    /**
+     * @return true if <code>cell</code> got its exact distance in the last
+     *         call to <code>plan</code> (if it didn't, we have been pushed
+     *         off our path and should plan again)
+     */
+    boolean isSettled(int cell);
+}
@@ -19,16 +19,17 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
 
 package it.unibo.cs.csrobots;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.List;
 import java.util.LinkedList;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Comparator;
-import java.util.Queue;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 public class Player extends BasePlayer {
     private static final int DEFAULT_SERVER_PORT = 7919;
@@ -37,7 +38,113 @@ public class Player extends BasePlayer {
     private static final int EXIT_STATUS_FAILURE  = 1;
     private static final int EXIT_STATUS_BAD_ARGS = 2;
 
-    private Field field;
+    /** Side of the clusters of the hierarchical abstraction */
+    private static final int CLUSTER_SIZE = 15;
+
+    /** The side of the buckets our sources are sorted into */
+    private static final int SOURCE_BUCKET_SIZE = 16;
+
+    /** How many maps we work out ahead at most, waiting for the server */
+    private static final int MAX_SPECULATED = 4;
+
+    /** How many destinations we route through at most */
+    private static final int MAX_ROUTE_STOPS = 16;
+
+    /** The ways we know of filling in a distance map */
+    public enum EngineType { BFS, BITBOARD, PARALLEL }
+
+    /** The ways we know of finding our way to the current target */
+    public enum PlannerType { GRADIENT, ASTAR, JPS, JPS_PLUS, DYNAMIC }
+
+    /** What we know of the board and the packets on it */
+    private WorldModel world;
+
+    /** The flat view of our field the path finding works on */
+    private Terrain terrain;
+
+    /** Fills in our distance maps */
+    private DistanceEngine distanceEngine;
+
+    /** Which kind of the above we want, and how many threads it may use */
+    private EngineType engineType = EngineType.BFS;
+    private int engineThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The threads every parallel engine we make shares, so speculating
+     * and routing don't each bring <code>engineThreads</code> more
+     */
+    private ForkJoinPool enginePool = null;
+
+    /** Fills in <code>targetDists</code>, and the kind we want */
+    private PathPlanner pathPlanner;
+    private PlannerType plannerType = PlannerType.ASTAR;
+
+    /**
+     * The maps the gradient planner already filled in, if we keep them, and
+     * how much memory they may take.
+     */
+    private DistanceCache distanceCache = null;
+    private long distanceCacheBytes = 0;
+
+    /** Where to look for a distance atlas for the board, and the one we found */
+    private File atlasDir = null;
+    private DistanceAtlas atlas = null;
+
+    /**
+     * The path planner again, if it works out the maps we're likely to want
+     * next while the server is busy, and whether we want it to.
+     */
+    private SpeculativePlanner speculativePlanner = null;
+    private boolean speculate = false;
+
+    /**
+     * Scratch for the targets we may want next, and for the sources
+     * nearest to where we'll be (one more, as that may be the square itself)
+     */
+    private int[] likelyTargets = new int[MAX_SPECULATED];
+    private int[] nearSources = new int[3];
+
+    /**
+     * If we want it, what chooses the order to deliver what we carry in,
+     * instead of nearest first.
+     */
+    private RoutePlanner routePlanner = null;
+    private boolean useRoutePlanner = false;
+
+    /**
+     * How long we may think each turn, or 0 for as long as it takes, and
+     * when this turn's thinking must be over.
+     */
+    private long thinkNanos = 0;
+    private Deadline deadline = Deadline.NONE;
+
+    /**
+     * How long filling in a map may take: the longest of the last few,
+     * give or take, as it fades away a little with each turn since. By
+     * the turn, not the map, or one slow map (a collection, say) would
+     * keep us from planning, and so from ever learning it was a fluke.
+     * It never fades below the quicker of the last two, though, or maps
+     * that are always slow would have us try one every few turns.
+     */
+    private long planNanos = 0;
+    private long lastPlanNanos = 0, prevPlanNanos = 0;
+
+    /**
+     * The path planner again, if it's one that steers clear of the other
+     * robots; we must then keep it posted on where they are.
+     */
+    private DynamicPlanner dynamicPlanner = null;
+
+    /** Scratch space for the cells of the other robots */
+    private int[] robotCells = new int[16];
+
+    /**
+     * How much danger each square is in from the other robots, and how far
+     * and how strongly they are felt.
+     */
+    private InfluenceMap dangerMap;
+    private int dangerRadius = 2;
+    private InfluenceMap.Decay dangerDecay = InfluenceMap.Decay.FLAT;
 
     /** All the packets we're currently carrying */
     private LinkedList<Packet> packetLoad;
@@ -45,23 +152,23 @@ public class Player extends BasePlayer {
     /** Our total load, in the SI unit of your choice */
     private int load;
 
-    /** The list of positions that may have packets on them */
-    private LinkedList<Position> sourceList;
+    /** The squares that may have packets on them */
+    private SourceSet sourceList;
 
     /**
      * Squares with packets that are currently unavailable to us (e.g. due to
      * our limited carrying capacity). This can of course change each time we
-     * we drop something.
+     * we drop something, so they're kept by the lightest packet on them.
      */
-    private LinkedList<Position> suspendedSources;
+    private SuspendedSources suspendedSources;
 
     /** 
      * All the packets we know about. Makes for easy id to Packet translation.
      */
-    private HashMap<Integer, Packet> packetDict;
+    private IntMap<Packet> packetDict;
 
     /** The foes */
-    private HashMap<Integer, Robot> robots = null;
+    private IntMap<Robot> robots = null;
 
     /** The current target, if we happen to have one */
     private Position target = null;
@@ -72,41 +179,237 @@ public class Player extends BasePlayer {
     private int infinity;
 
     /** 
-     * Distances from our current target. We try to be nice to the VM so this
-     * is allocated only once and reused from there on.
+     * Distances from our current target, indexed by cell. We try to be nice
+     * to the VM so this is allocated only once and reused from there on.
+     * Depending on the path planner, only the cells along our way there may
+     * be filled in.
+     */
+    private int[] targetDists;
+
+    /**
+     * Whether <code>targetDists</code> leads to our target yet: if there
+     * wasn't time to plan when we chose it, it doesn't.
      */
-    private int[][] targetDists;
+    private boolean targetPlanned = false;
 
     /**
-     * As above, but used temporarily for calculating the less expensive next
-     * target. So this may, or may not, at a given point represent the dists
-     * to all other reachable locations.
+     * The distance from each square to the nearest source, and to the
+     * nearest place one of the packets we carry is headed, and which one
+     * that is. Kept up to date as they come and go, so choosing the next
+     * target doesn't take a fill of the board.
      */
-    private int[][] sourceDists;
+    private MultiSourceField sourceField = null;
+    private MultiSourceField destField = null;
+
+    /**
+     * If we're using it, the abstraction we guess distances with when
+     * choosing our target, instead of keeping the fields above.
+     */
+    private ClusterGraph clusterGraph = null;
+    private boolean useClusterGraph = false;
 
     /** Have we checked if each entry in our source list is reachable? */
     private boolean sourceListFiltered = false;
 
-    /** A flag that tells if the above has been already initialized. */
-    private boolean distanceComputed = false;
-
-    /** The direction we're currently "scanning" */
-    private Direction scanningDir = Direction.e;
+    /** Where to look for packets when we know of none */
+    private FrontierExplorer explorer;
 
     /** Our previous command, an often useful piece of information */
     private Command prevCommand = null;
 
-    /** We flag each square we visit at least once as visited. */
-    private boolean[][] visitedMap;
+    /** How many steps ahead computePathCosts looks */
+    private static final int MAX_SEARCH_DEPTH = 10;
+
+    /** The side of the window around us that takes in every such step */
+    private static final int PATH_COST_SPAN = 2 * MAX_SEARCH_DEPTH + 1;
+
+    /**
+     * Scratch for computePathCosts, over the window around
+     * <code>pathCostOrigin</code>: the cost of going on from each square,
+     * whether it's been collected yet, and the squares collected, step by
+     * step.
+     */
+    private double[] pathCosts = new double[PATH_COST_SPAN * PATH_COST_SPAN];
+    private int[] pathCostStamps = new int[PATH_COST_SPAN * PATH_COST_SPAN];
+    private int pathCostStamp = 0;
+    private int[] pathCostCells = new int[PATH_COST_SPAN * PATH_COST_SPAN];
+    private int[] pathCostLayers = new int[MAX_SEARCH_DEPTH + 1];
+    private int pathCostOrigin;
+
+    /** Squares looked at by computePathCosts, for the flight recorder */
+    private int pathCostVisits = 0;
 
     public Player(int port, String host) throws StubException {
         super(port, host);
         packetLoad = new LinkedList<Packet>();
-        sourceList = new LinkedList<Position>();
-        packetDict = new HashMap<Integer, Packet>();
+        packetDict = new IntMap<Packet>();
         target = null;
-        robots = new HashMap<Integer, Robot>();
-        suspendedSources = new LinkedList<Position>();
+        robots = new IntMap<Robot>();
+    }
+
+    /**
+     * Chooses the distance engine. Must be called before the game starts.
+     *
+     * @param threads the number of worker threads, only meaningful to the
+     *        parallel engine
+     */
+    public void setDistanceEngine(EngineType type, int threads) {
+        engineType = type;
+        engineThreads = threads;
+    }
+
+    /**
+     * Chooses the path planner. Must be called before the game starts.
+     */
+    public void setPathPlanner(PlannerType type) {
+        plannerType = type;
+    }
+
+    /**
+     * Chooses whether to guess target distances with a hierarchical
+     * abstraction of the field. Must be called before the game starts.
+     */
+    public void setUseClusterGraph(boolean use) {
+        useClusterGraph = use;
+    }
+
+    /**
+     * Chooses how the other robots are felt when weighing the paths ahead.
+     * Must be called before the game starts.
+     */
+    public void setDanger(int radius, InfluenceMap.Decay decay) {
+        dangerRadius = radius;
+        dangerDecay = decay;
+    }
+
+    /**
+     * Lets the gradient planner keep the maps it fills in, up to the given
+     * number of bytes. Must be called before the game starts.
+     */
+    public void setDistanceCache(long bytes) {
+        distanceCacheBytes = bytes;
+    }
+
+    /**
+     * Lets the gradient and route planners take their maps from the
+     * distance atlas for the board in <code>dir</code>, if there is one.
+     * Must be called before the game starts.
+     */
+    public void setAtlasDir(File dir) {
+        atlasDir = dir;
+    }
+
+    /**
+     * Lets the gradient planner work out the maps to our likely next
+     * targets while we wait for the server. Must be called before the game
+     * starts.
+     */
+    public void setSpeculate(boolean speculate) {
+        this.speculate = speculate;
+    }
+
+    /**
+     * Has us deliver what we carry in the order that makes for the
+     * shortest way through all of it, rather than nearest first. Must be
+     * called before the game starts.
+     */
+    public void setUseRoutePlanner(boolean use) {
+        useRoutePlanner = use;
+    }
+
+    /**
+     * Bounds how long we think each turn: we settle for a cheaper, safe
+     * command when the better one won't be worked out in time. 0 means
+     * no bound.
+     */
+    public void setThinkTime(int ms) {
+        thinkNanos = ms * 1000000L;
+    }
+
+    /**
+     * Reports on how the distance cache, atlas, speculative and route
+     * planners did, if we had them.
+     */
+    public void printStatistics(PrintStream out) {
+        if (distanceCache != null)
+            distanceCache.printStatistics(out);
+        if (atlas != null)
+            atlas.printStatistics(out);
+        if (speculativePlanner != null)
+            speculativePlanner.printStatistics(out);
+        if (routePlanner != null)
+            routePlanner.printStatistics(out);
+    }
+
+    /**
+     * Works out the maps ahead on a thread of its own, with an engine of
+     * its own. Only worth it for the gradient planner: the others only
+     * search from where we stand, which we can't be sure of yet, and
+     * don't take long about it anyway.
+     */
+    private PathPlanner speculateAhead(PathPlanner planner) {
+        if (!speculate || plannerType != PlannerType.GRADIENT)
+            return planner;
+
+        speculativePlanner = new SpeculativePlanner(planner, createDistanceEngine(),
+                                                    terrain, MAX_SPECULATED);
+        return speculativePlanner;
+    }
+
+    /**
+     * Reads the atlas, if we have one, and wraps the path planner so it
+     * takes what maps it can from it. Only the gradient planner's: it
+     * fills in whole maps anyway, while the others only look at the
+     * squares between us and the target, which is cheaper than copying in
+     * a whole map. The dynamic planner's maps steer clear of the other
+     * robots, besides, which the atlas knows nothing about.
+     */
+    private PathPlanner openAtlas(PathPlanner planner) {
+        if (atlasDir == null)
+            return planner;
+
+        try {
+            atlas = DistanceAtlas.open(atlasDir, terrain);
+        } catch (IOException e) {
+            System.err.printf("warning: could not read the distance atlas [%s]\n",
+                              e.getMessage());
+        }
+        if (atlas == null || plannerType != PlannerType.GRADIENT)
+            return planner;
+        return new AtlasPlanner(atlas, planner);
+    }
+
+    private PathPlanner createPathPlanner() {
+        switch (plannerType) {
+        case GRADIENT:
+            // The only one that fills in whole maps
+            distanceEngine = createDistanceEngine();
+            if (distanceCacheBytes > 0)
+                distanceCache = new DistanceCache(terrain, distanceCacheBytes);
+            return new GradientPlanner(distanceEngine, distanceCache);
+        case JPS:
+            return new JumpPointPlanner(terrain, false);
+        case JPS_PLUS:
+            return new JumpPointPlanner(terrain, true);
+        case DYNAMIC:
+            dynamicPlanner = new DynamicPlanner(terrain);
+            return dynamicPlanner;
+        default:
+            return new AStarPlanner(terrain);
+        }
+    }
+
+    private DistanceEngine createDistanceEngine() {
+        switch (engineType) {
+        case BITBOARD:
+            return new BitboardDistanceEngine(terrain);
+        case PARALLEL:
+            if (enginePool == null)
+                enginePool = new ForkJoinPool(engineThreads);
+            return new ParallelDistanceEngine(terrain, enginePool);
+        default:
+            return new BfsDistanceEngine(terrain);
+        }
     }
 		
     // Debug only
@@ -129,9 +432,39 @@ public class Player extends BasePlayer {
         if (packetLoad.contains(p)) {
             packetLoad.remove(p);
             load -= p.getWeight();
+            forgetDestination(p);
         }
     }
 
+    private void addDestination(Packet p) {
+        if (destField != null)
+            destField.add(terrain.cell(p.getDestination()));
+        if (routePlanner != null)
+            routePlanner.add(terrain.cell(p.getDestination()));
+    }
+
+    /** The packet's not ours any more, so neither is its destination */
+    private void forgetDestination(Packet p) {
+        if (destField != null)
+            destField.remove(terrain.cell(p.getDestination()));
+        if (routePlanner != null)
+            routePlanner.remove(terrain.cell(p.getDestination()));
+    }
+
+    private void addSource(int cell) {
+        if (sourceList.add(cell) && sourceField != null)
+            sourceField.add(cell);
+    }
+
+    /** @return false if it wasn't a source */
+    private boolean removeSource(int cell) {
+        if (!sourceList.remove(cell))
+            return false;
+        if (sourceField != null)
+            sourceField.remove(cell);
+        return true;
+    }
+
     /**
      * Release the packet we picked _last_.
      */
@@ -139,6 +472,7 @@ public class Player extends BasePlayer {
         if (!packetLoad.isEmpty()) {
             Packet p = packetLoad.removeLast();
             load -= p.getWeight();
+            forgetDestination(p);
         }
     }
 
@@ -163,12 +497,10 @@ public class Player extends BasePlayer {
 
         if (robots.containsKey(update.getPlayerId())) {
             Robot r = robots.get(update.getPlayerId());
-
-            assert field.getRobot(r.getPosition()) != null;
-
-            field.setRobot(r.getPosition(), null);
-            r.setPosition(r.getPosition().move(update.getDirection()));
-            field.setRobot(r.getPosition(), r);
+            Position from = r.getPosition();
+            r.setPosition(from.move(update.getDirection()));
+            if (r.getId() != getId())
+                dangerMap.move(from, r.getPosition());
         }
     }
 
@@ -179,6 +511,7 @@ public class Player extends BasePlayer {
 
             // We're carrying another packet now...
             packetLoad.add(packetDict.get(update.getPacketId()));
+            addDestination(packetDict.get(update.getPacketId()));
             load += packetDict.get(update.getPacketId()).getWeight();
         } else if (packetDict.containsKey(update.getPacketId())) {
             Packet packet = packetDict.get(update.getPacketId());
@@ -191,21 +524,21 @@ public class Player extends BasePlayer {
 
         if (robots.containsKey(update.getPlayerId())) {
             Robot robot = robots.get(update.getPlayerId());
-            Position pos = robot.getPosition();
+            int c = terrain.cell(robot.getPosition());
 
             // If we're certain (well, almost) that this square doesn't contain
             // other packets besides this, then remove it from our list of
             // plausible packet sources.
-            field.removePacket(pos, update.getPacketId());
-            if (visitedMap[pos.getY()][pos.getX()] &&
-                !field.hasPackets(pos))
-                sourceList.remove(pos);
+            world.removePacket(c, update.getPacketId());
+            if (world.isVisited(c) && !world.hasPackets(c))
+                removeSource(c);
         }
     }
 
     public void handleUpdate(DropUpdate update) {
         if (update.getPlayerId() == getId()) {
             packetLoad.remove(packetDict.get(update.getPacketId()));
+            forgetDestination(packetDict.get(update.getPacketId()));
             load -= packetDict.get(update.getPacketId()).getWeight();
 
             // We won't be needing a reference to this packet again, so we can
@@ -214,16 +547,15 @@ public class Player extends BasePlayer {
             
             // Each time we drop something, we regain some force. Hence some
             // of the suspended sources might become interesting to us again.
-            for (Position p : suspendedSources) {
-                for (Packet pkg : field.getPackets(p)) {
-                    if (pkg.getWeight() <= (getStrength() - load)) {
-                        sourceList.add(p);
-                        break;
-                    }
+            SuspendedSources.Weigher weigher = new SuspendedSources.Weigher()
+            {
+                public int lightest(int cell) {
+                    return lightestPacket(cell);
                 }
-            }
-            for (Position p : sourceList)
-                suspendedSources.remove(p);
+            };
+            int c;
+            while ((c = suspendedSources.poll(getStrength() - load, weigher)) >= 0)
+                addSource(c);
         } else {
             Packet packet = packetDict.get(update.getPacketId());
             if (packetLoad.contains(packet)) {
@@ -235,12 +567,20 @@ public class Player extends BasePlayer {
     }
 
     public void handleUpdate(AppearUpdate update) {
-        if (update.getPlayerId() == getId())
+        if (update.getPlayerId() == getId()) {
             setPosition(update.getPosition());
+            // Now that we know where we stand, out with the bases we'll
+            // never get to.
+            filterSourceList();
+        }
 
         Robot robot = new Robot(update.getPlayerId(), update.getPosition());
-        robots.put(update.getPlayerId(), robot);
-        field.setRobot(robot.getPosition(), robot);
+        Robot old = robots.put(update.getPlayerId(), robot);
+        if (robot.getId() != getId()) {
+            if (old != null)
+                dangerMap.remove(old.getPosition());
+            dangerMap.add(robot.getPosition());
+        }
     }
 
     public void handleUpdate(KillUpdate update) {
@@ -251,8 +591,8 @@ public class Player extends BasePlayer {
             // the map and the dictionary.
             if (robots.containsKey(update.getPlayerId())) {
                 Robot killed = robots.get(update.getPlayerId());
-                field.setRobot(killed.getPosition(), null);
                 robots.remove(killed.getId());
+                dangerMap.remove(killed.getPosition());
             }
         }
     }
@@ -262,9 +602,7 @@ public class Player extends BasePlayer {
      * location.
      */
     protected void handlePacketsNotify(LinkedList<Packet> packets) {
-        for (Packet p : field.getPackets(getPosition()))
-            field.removePacket(getPosition(), p.getId());
-
+        LinkedList<Packet> here = new LinkedList<Packet>();
         for (Packet p : packets) {
             // We don't bother with updating our field with packages whose dest
             // is not reachable.
@@ -272,7 +610,7 @@ public class Player extends BasePlayer {
                 if (!packetDict.containsKey(p.getId()))
                     packetDict.put(p.getId(), p);
 							
-                field.addPacket(getPosition(), p);
+                here.add(p);
 
                 // A subtlety: if we happen to think we're carrying a packet we
                 // were just told we're standing on, something's wrong (i.e. we
@@ -282,8 +620,24 @@ public class Player extends BasePlayer {
             }
         }
 
-        int py = getPosition().getY(), px = getPosition().getX();
-        visitedMap[py][px] = true;
+        int c = terrain.cell(getPosition());
+        world.setPackets(c, here);
+        world.visit(c);
+        explorer.visit(c);
+
+        // What's here may weigh differently from what we thought
+        suspendedSources.update(c, lightestPacket(c));
+    }
+
+    /**
+     * @return the weight of the lightest packet we know of on a square, or
+     *         Integer.MAX_VALUE if there's none
+     */
+    private int lightestPacket(int cell) {
+        int lightest = Integer.MAX_VALUE;
+        for (Packet p : world.getPackets(cell))
+            lightest = Math.min(lightest, p.getWeight());
+        return lightest;
     }
 
     /**
@@ -339,62 +693,70 @@ public class Player extends BasePlayer {
         return lst;
     }
 
-    private void tryVisit(int y, int x, int cost,
-                          int[][] distances, Queue<Position> q) {
-        if (distances[y][x] == infinity &&
-            field.getType(y, x) != Field.CellType.WATER &&
-            field.getType(y, x) != Field.CellType.WALL) {
-            q.offer(new Position(y, x));
-            distances[y][x] = cost + 1;
-        }
-    }
-
     /**
-     * Compute the minimum distance form each point to <code>pos</code> using
-     * an iterative "gradient fill" algorithm.
-     *
-     * @param distances array where the relative distances are stored
-     * @param pos the source
+     * Fill in <code>targetDists</code>, at least along the way from where we
+     * stand to our target.
      */
-    private void computeDists(int[][] distances, Position pos) {
-        // First, fill the array with inifinity
-        for (int i = 0; i < field.getHeight(); i++)
-            Arrays.fill(distances[i], infinity);
+    private void planPath() {
+        planPath(target);
+        targetPlanned = true;
+    }
 
-        // Squares we must still visit
-        Queue<Position> toVisit = new LinkedList<Position>();
+    private void planPath(Position to) {
+        FlightEvents.DistanceFieldEvent event = new FlightEvents.DistanceFieldEvent();
+        event.begin();
 
-        // The origin
-        toVisit.offer(pos);
-        distances[pos.getY()][pos.getX()] = 0;
+        updateObstacles();
+        targetPlanned = false;
 
-        // While there are squares to visit...
-        while (toVisit.peek() != null) {
-            Position p = toVisit.poll();
-            int x = p.getX();
-            int y = p.getY();
-            int cost = distances[y][x];
+        // A map worked out ahead says nothing of how long one takes
+        int cell = terrain.cell(to);
+        boolean ready = speculativePlanner != null && speculativePlanner.isReady(cell);
 
-            if (y + 1 < field.getHeight())
-                tryVisit(y + 1, x, cost, distances, toVisit);
-            if (y - 1 >= 0)
-                tryVisit(y - 1, x, cost, distances, toVisit);
-            if (x + 1 < field.getWidth())
-                tryVisit(y, x + 1, cost, distances, toVisit);
-            if (x - 1 >= 0)
-                tryVisit(y, x - 1, cost, distances, toVisit);
+        long start = System.nanoTime();
+        int visited = pathPlanner.plan(targetDists, cell, terrain.cell(getPosition()));
+        if (!ready) {
+            prevPlanNanos = lastPlanNanos;
+            lastPlanNanos = System.nanoTime() - start;
+            planNanos = Math.max(lastPlanNanos, planNanos);
+        }
+
+        if (event.shouldCommit()) {
+            event.boardSize = terrain.getSize();
+            event.cellsVisited = visited;
+            event.commit();
         }
     }
 
-    private void ensureDistsComputed() {
-        if (!distanceComputed)
-            computeDists(sourceDists, getPosition());
-        distanceComputed = true;
+    /**
+     * Tell the planner (if it cares) where the other robots stand.
+     */
+    private void updateObstacles() {
+        if (dynamicPlanner == null)
+            return;
+
+        int n = 0;
+        for (Robot r : robots) {
+            if (r.getId() == getId())
+                continue;
+            if (n == robotCells.length)
+                robotCells = Arrays.copyOf(robotCells, 2 * n);
+            robotCells[n++] = terrain.cell(r.getPosition());
+        }
+        dynamicPlanner.setObstacles(robotCells, n);
+    }
+
+    /**
+     * Whatever pushes us around, we stay in the same component, so this is
+     * the same as asking whether <code>cell</code> is in the component we
+     * started from.
+     */
+    private boolean cellReachable(int cell) {
+        return terrain.isConnected(terrain.cell(getPosition()), cell);
     }
 
     private boolean positionReachable(Position p) {
-        ensureDistsComputed();
-        return sourceDists[p.getY()][p.getX()] != infinity;
+        return cellReachable(terrain.cell(p));
     }
 
     /**
@@ -402,46 +764,105 @@ public class Player extends BasePlayer {
      */
     private void filterSourceList() {
         if (!sourceListFiltered) {
-            for (int i = 0; i < sourceList.size(); ++i) {
-                Position p = sourceList.get(i);
-                if (sourceDists[p.getY()][p.getX()] == infinity) {
-                    sourceList.remove(i);
-                    --i;
-                }
-            }
+            for (int c : sourceList.toArray())
+                if (!cellReachable(c))
+                    removeSource(c);
         }
         sourceListFiltered = true;
     }
 
+    /**
+     * How far we are from <code>p</code>, as guessed by the cluster graph.
+     */
+    private int targetCost(Position p) {
+        return targetCost(terrain.cell(p));
+    }
+
+    private int targetCost(int cell) {
+        return clusterGraph.approximateDistance(cell);
+    }
+
+    /**
+     * @return the exact distance from where we stand to <code>p</code>;
+     *         leaves <code>targetDists</code> planned for <code>p</code>
+     */
+    private int exactDistance(Position p) {
+        planPath(p);
+        return targetDists[terrain.cell(getPosition())];
+    }
+
+    /**
+     * Is there time left this turn to plan the way to our target? There is
+     * if the map is ready and waiting.
+     */
+    private boolean canPlan() {
+        return deadline.allows(planNanos) ||
+            (speculativePlanner != null &&
+             speculativePlanner.isReady(terrain.cell(target)));
+    }
+
     /**
      * Choose our next target using several different heuristics (e.g. our
-     * current capacity, drop target distance, base distance).
+     * current capacity, drop target distance, base distance). Planning the
+     * way there is left for later if there's no time for it.
      */
     private void computeNextTarget() {
-        computeDists(sourceDists, getPosition());
-        distanceComputed = true;
+        FlightEvents.NextTargetEvent event = new FlightEvents.NextTargetEvent();
+        event.begin();
 
         filterSourceList();
 
+        int here = terrain.cell(getPosition());
         Position closestSrc = null;
         int srcCost = 0;
-        for (Position p : sourceList) {
-            int cost = sourceDists[p.getY()][p.getX()];
-            if (closestSrc == null || srcCost > cost) {
-                srcCost = cost;
-                closestSrc = p;
-            }
-        }
-
         Position closestDest = null;
         int destCost = 0;
-        for (Packet p : packetLoad) {
-            Position pos = p.getDestination();
-            int cost = sourceDists[pos.getY()][pos.getX()];
-            if (closestDest == null || destCost > cost) {
-                destCost = cost;
-                closestDest = pos;
+
+        if (clusterGraph == null) {
+            // Just a look at the fields
+            int closest = sourceField.nearest(here);
+            if (closest >= 0) {
+                closestSrc = terrain.getPosition(closest);
+                srcCost = sourceField.distance(here);
+            }
+            closest = destField.nearest(here);
+            if (closest >= 0) {
+                closestDest = terrain.getPosition(closest);
+                destCost = destField.distance(here);
+            }
+        } else {
+            clusterGraph.search(here);
+
+            // No way is ever shorter than the Manhattan distance, so only
+            // the sources around us need looking at.
+            int closest = sourceList.closest(here, new SourceSet.Cost()
+                {
+                    public int of(int cell) {
+                        return targetCost(cell);
+                    }
+                });
+            if (closest >= 0) {
+                closestSrc = terrain.getPosition(closest);
+                srcCost = targetCost(closest);
             }
+
+            for (Packet p : packetLoad) {
+                Position pos = p.getDestination();
+                int cost = targetCost(pos);
+                if (closestDest == null || destCost > cost) {
+                    destCost = cost;
+                    closestDest = pos;
+                }
+            }
+        }
+
+        // With more than one stop to make, the nearest needn't be the one
+        // to make first; the cost stays the nearest's, as that's what
+        // weighing up delivering against picking up more is about.
+        if (routePlanner != null && closestDest != null) {
+            int first = routePlanner.next(here, deadline);
+            if (first >= 0)
+                closestDest = terrain.getPosition(first);
         }
 
         // Now we must chose our next target. Here's our (very naive) decision
@@ -457,6 +878,17 @@ public class Player extends BasePlayer {
         //
         // This *seems* to work well on average but is nevertheless just our
         // naive estimate!
+        //
+        // If the costs are guesses, the two we're left with are worth
+        // getting right.
+
+        Position planned = null;
+        if (clusterGraph != null && closestSrc != null && closestDest != null &&
+            deadline.allows(2 * planNanos)) {
+            srcCost = exactDistance(closestSrc);
+            destCost = exactDistance(closestDest);
+            planned = closestDest;
+        }
 
         if (closestSrc != null && closestDest != null) {
             double d = (double) destCost;
@@ -471,86 +903,198 @@ public class Player extends BasePlayer {
                 double crit = (d/s) * loadFact;
                 target = (crit > 1) ? closestSrc : closestDest;
             }
-            computeDists(targetDists, target);
         } else if (closestDest != null) {
             target = closestDest;
-            computeDists(targetDists, target);
         } else if (closestSrc != null ) {
             target = closestSrc;
-            computeDists(targetDists, target);
         } else {
-            target = findNextScanTarget(getPosition());
-            computeDists(targetDists, target);
+            // Nothing to do but look around; if there's nowhere to look,
+            // stay put.
+            int next = explorer.next(here);
+            target = (next >= 0) ? terrain.getPosition(next) : getPosition();
+        }
+
+        targetPlanned = target.equals(planned);
+        if (!targetPlanned && canPlan())
+            planPath();
+
+        if (event.shouldCommit()) {
+            event.boardSize = terrain.getSize();
+            event.sources = sourceList.size();
+            event.carried = packetLoad.size();
+            event.targetY = target.getY();
+            event.targetX = target.getX();
+            event.commit();
         }
     }
 
     /**
-     * Compute the "lethality" of a path, that is, try to come with an
-     * approximation of it by counting the number of enemies along it.
+     * Compute the "lethality" of the paths ahead of us, that is, try to come
+     * with an approximation of it by counting the number of enemies along
+     * them, up to <code>MAX_SEARCH_DEPTH</code> steps away.
+     * <p>
+     * Each step along a shortest path takes us one closer to the target, so
+     * how many steps away a square is only depends on the square itself,
+     * and so does the cheapest way on from it. Instead of following every
+     * path, we go out one step (one distance to the target) at a time to
+     * find the squares we may walk on, then work out their costs backwards,
+     * each one once. The result for each square is kept in
+     * <code>pathCosts</code>, for <code>pathCost</code> to look up.
      */
-    private double computePathCost(Position p, int sourceDistance) {
-        final int MAX_SEARCH_DEPTH = 10;
-
-        if (sourceDistance > MAX_SEARCH_DEPTH || p.equals(target))
-            return 0.0;
-
-        int y = p.getY();
-        int x = p.getX();
-        int currentDistance = targetDists[y][x];
-
-        double penalty = 0.0;
-
-        int numEnemies = enemiesInRange(p);
-        if (numEnemies > 0)
-            penalty = ((double) numEnemies) / (sourceDistance);
-
-        Direction[] candidates = new Direction[4];
-        int nCandidates = 0;
+    private void computePathCosts(int origin) {
+        final int width = terrain.getWidth();
+        final int oy = terrain.getY(origin), ox = terrain.getX(origin);
+        final int targetCell = terrain.cell(target);
+
+        ++pathCostStamp;
+        pathCostOrigin = origin;
+
+        // The squares k steps away are pathCostCells[pathCostLayers[k - 1]]
+        // up to pathCostCells[pathCostLayers[k]].
+        int n = 0;
+        pathCostLayers[0] = 0;
+        n = collectDownhill(origin, n);
+        pathCostLayers[1] = n;
+        for (int k = 1; k < MAX_SEARCH_DEPTH; ++k) {
+            for (int i = pathCostLayers[k - 1]; i < pathCostLayers[k]; ++i)
+                if (pathCostCells[i] != targetCell)
+                    n = collectDownhill(pathCostCells[i], n);
+            pathCostLayers[k + 1] = n;
+        }
+        pathCostVisits += n;
+
+        for (int k = MAX_SEARCH_DEPTH; k >= 1; --k) {
+            for (int i = pathCostLayers[k - 1]; i < pathCostLayers[k]; ++i) {
+                int c = pathCostCells[i];
+                int w = pathCostIndex(c, oy, ox);
+                if (c == targetCell) {
+                    pathCosts[w] = 0.0;
+                    continue;
+                }
 
-        if (x > 0 && targetDists[y][x-1] == currentDistance-1)
-            candidates[nCandidates++] = Direction.w;
+                int y = terrain.getY(c), x = terrain.getX(c);
+                double penalty = 0.0;
+                int numEnemies = dangerMap.get(y, x);
+                if (numEnemies > 0)
+                    penalty = ((double) numEnemies) / k;
+
+                // The cheapest way on; squares past the horizon cost nothing
+                int next = targetDists[c] - 1;
+                double min = 0.0;
+                boolean any = false;
+                if (k < MAX_SEARCH_DEPTH) {
+                    if (x > 0 && targetDists[c-1] == next) {
+                        double cost = pathCosts[w - 1];
+                        if (!any || cost < min)
+                            min = cost;
+                        any = true;
+                    }
+                    if (x < width-1 && targetDists[c+1] == next) {
+                        double cost = pathCosts[w + 1];
+                        if (!any || cost < min)
+                            min = cost;
+                        any = true;
+                    }
+                    if (y > 0 && targetDists[c-width] == next) {
+                        double cost = pathCosts[w - PATH_COST_SPAN];
+                        if (!any || cost < min)
+                            min = cost;
+                        any = true;
+                    }
+                    if (y < terrain.getHeight()-1 && targetDists[c+width] == next) {
+                        double cost = pathCosts[w + PATH_COST_SPAN];
+                        if (!any || cost < min)
+                            min = cost;
+                        any = true;
+                    }
+                }
 
-        if (x < field.getWidth()-1 && targetDists[y][x+1] == currentDistance-1)
-            candidates[nCandidates++] = Direction.e;
+                pathCosts[w] = penalty + min;
+            }
+        }
+    }
 
-        if (y > 0 && targetDists[y-1][x] == currentDistance-1)
-            candidates[nCandidates++] = Direction.n;
+    /**
+     * Appends to <code>pathCostCells</code> the squares one step closer to
+     * the target than <code>c</code>, unless they're already there.
+     *
+     * @return the new number of squares
+     */
+    private int collectDownhill(int c, int n) {
+        final int width = terrain.getWidth();
+        int y = terrain.getY(c), x = terrain.getX(c);
+        int next = targetDists[c] - 1;
+
+        if (x > 0 && targetDists[c-1] == next)
+            n = collect(c - 1, n);
+        if (x < width-1 && targetDists[c+1] == next)
+            n = collect(c + 1, n);
+        if (y > 0 && targetDists[c-width] == next)
+            n = collect(c - width, n);
+        if (y < terrain.getHeight()-1 && targetDists[c+width] == next)
+            n = collect(c + width, n);
+        return n;
+    }
 
-        if (y < field.getHeight()-1 && targetDists[y+1][x] == currentDistance-1)
-            candidates[nCandidates++] = Direction.s;
+    private int collect(int c, int n) {
+        int w = pathCostIndex(c, terrain.getY(pathCostOrigin), terrain.getX(pathCostOrigin));
+        if (pathCostStamps[w] != pathCostStamp) {
+            pathCostStamps[w] = pathCostStamp;
+            pathCostCells[n++] = c;
+        }
+        return n;
+    }
 
-        double[] costs = new double[4];
-        for (int i = 0; i < nCandidates; ++i)
-            costs[i] = computePathCost(p.move(candidates[i]), sourceDistance+1);
+    /** Where a square within reach goes in <code>pathCosts</code> */
+    private int pathCostIndex(int c, int oy, int ox) {
+        return ((terrain.getY(c) - oy + MAX_SEARCH_DEPTH) * PATH_COST_SPAN +
+                terrain.getX(c) - ox + MAX_SEARCH_DEPTH);
+    }
 
-        int min = 0;
-        for (int i = 1; i < nCandidates; ++i)
-            if (costs[i] < costs[min])
-                min = i;
-        
-        return penalty + costs[min];
+    /**
+     * @return the cost of going on from a square next to us, as worked out
+     *         by the last <code>computePathCosts</code>
+     */
+    private double pathCost(int c) {
+        int o = pathCostOrigin;
+        return pathCosts[pathCostIndex(c, terrain.getY(o), terrain.getX(o))];
     }
 
     private Direction computeDirection() {
         assert target != null;
 
+        FlightEvents.DirectionEvent event = new FlightEvents.DirectionEvent();
+        event.begin();
+        pathCostVisits = 0;
+
         int y = getPosition().getY();
         int x = getPosition().getX();
+        int c = terrain.cell(y, x);
+        int width = terrain.getWidth();
 
-        int currentDistance = targetDists[y][x];
+        // We may have been pushed off our way, or someone may be in it
+        updateObstacles();
+        if (!pathPlanner.isSettled(c))
+            planPath();
+
+        // Out of time, the first way along will have to do
+        int currentDistance = targetDists[c];
+        boolean scored = !deadline.hasExpired();
+        if (scored)
+            computePathCosts(c);
 
         Direction dir = null;
         double penalty = -1.0;
 
         //// WEST
-        if (x > 0 && targetDists[y][x-1] == currentDistance-1) {
+        if (x > 0 && targetDists[c-1] == currentDistance-1) {
             dir = Direction.w;
-            penalty = computePathCost(getPosition().move(dir), 1);
+            penalty = scored ? pathCost(c-1) : 0;
         }
         
         //// EAST
-        if (x < field.getWidth()-1 && targetDists[y][x+1] == currentDistance-1) {
-            double cost = computePathCost(getPosition().move(Direction.e), 1);
+        if (x < width-1 && targetDists[c+1] == currentDistance-1) {
+            double cost = scored ? pathCost(c+1) : 0;
             if (dir == null || cost < penalty) {
                 dir = Direction.e;
                 penalty = cost;
@@ -558,8 +1102,8 @@ public class Player extends BasePlayer {
         }
 				
         //// NORTH
-        if (y > 0 && targetDists[y-1][x] == currentDistance-1) {
-            double cost = computePathCost(getPosition().move(Direction.n), 1);
+        if (y > 0 && targetDists[c-width] == currentDistance-1) {
+            double cost = scored ? pathCost(c-width) : 0;
             if (dir == null || cost < penalty) {
                 dir = Direction.n;
                 penalty = cost;
@@ -567,8 +1111,8 @@ public class Player extends BasePlayer {
         }
 
         //// SOUTH
-        if (y < field.getHeight()-1 && targetDists[y+1][x] == currentDistance-1) {
-            double cost = computePathCost(getPosition().move(Direction.s), 1);
+        if (y < terrain.getHeight()-1 && targetDists[c+width] == currentDistance-1) {
+            double cost = scored ? pathCost(c+width) : 0;
             if (dir == null || cost < penalty) {
                 dir = Direction.s;
                 penalty = cost;
@@ -576,52 +1120,30 @@ public class Player extends BasePlayer {
         }
 
         assert dir != null;
-        return dir;
-    }
 
-    private boolean inFieldBounds(Position p) {
-        return inFieldBounds(p.getY(), p.getX());
-    }
-
-    private boolean inFieldBounds(int y, int x) {
-        return (x >= 0 && x < field.getWidth() &&
-                y >= 0 && y < field.getHeight());
-    }
-
-    private int enemiesInRange(Position pos) {
-        int y = pos.getY(), x = pos.getX();
-
-        Position[] threshold = {
-            new Position(y-2, x),
-            new Position(y-1, x-1),
-            new Position(y-1, x),
-            new Position(y-1, x+1),
-            new Position(y,   x-2),
-            new Position(y,   x-1),
-            new Position(y,   x),
-            new Position(y,   x+1),
-            new Position(y,   x+2),
-            new Position(y+1, x-1),
-            new Position(y+1, x),
-            new Position(y+1, x+1),
-            new Position(y+2, x),
-        };
-
-        int count = 0;
-
-        for (Position p : threshold)
-            if (inFieldBounds(p) &&
-                field.getRobot(p) != null &&
-                field.getRobot(p).getId() != getId())
-                count += 1;
+        if (event.shouldCommit()) {
+            event.boardSize = terrain.getSize();
+            event.cellsVisited = pathCostVisits;
+            event.direction = (dir != null) ? dir.name() : null;
+            event.commit();
+        }
 
-        return count;
+        return dir;
     }
 
     /**
-     * Decide on a Command for this turn.
+     * Decide on a Command for this turn, within our time if we have a
+     * bound: what's cheap to work out comes first, and the costly parts
+     * (planning the way to a new target, weighing up the danger along it)
+     * are only done if they'll fit in what time is left. If planning
+     * won't, we take a safe step towards the target instead, and the
+     * speculative planner, if we have one, works on the way there in the
+     * meantime.
      */
     protected Command issueCommand() {
+        deadline = (thinkNanos > 0) ? new Deadline(thinkNanos) : Deadline.NONE;
+        planNanos = Math.max(planNanos - planNanos / 4,
+                             Math.min(lastPlanNanos, prevPlanNanos));
 
         // First, if we have something to drop here, do it!
         LinkedList<Integer> pkgToDrop = computeDropList();
@@ -631,10 +1153,12 @@ public class Player extends BasePlayer {
                                                   pkgToDrop));
 
         // Nothing to drop; see if there's something to pick up.
-        if (!field.hasPackets(getPosition())) {
-            sourceList.remove(getPosition());
+        int here = terrain.cell(getPosition());
+        if (!world.hasPackets(here)) {
+            removeSource(here);
         } else {
-            Packet[] packets = field.getPackets(getPosition());
+            // Sorted in place, so not the world's own copy
+            Packet[] packets = world.getPackets(here).clone();
             LinkedList<Integer> shopList = computePickList(packets);
 
             if (!shopList.isEmpty())
@@ -642,10 +1166,8 @@ public class Player extends BasePlayer {
                                                       detractMoney(1),
                                                       shopList));
             else {
-                if (sourceList.contains(getPosition())) {
-                    sourceList.remove(getPosition());
-                    suspendedSources.add(getPosition());
-                }
+                if (removeSource(here))
+                    suspendedSources.suspend(here, lightestPacket(here));
             }
         }
 
@@ -659,177 +1181,203 @@ public class Player extends BasePlayer {
             // Note: this sould never really happen, but if it does...
             // we would rather not die.
             return issueIdleCommand();
-        else
-            return (prevCommand = new MoveCommand(getId(),
-                                                  detractMoney(1),
-                                                  computeDirection()));
+
+        if (!targetPlanned && !canPlan()) {
+            Direction dir = computeSafeDirection();
+            if (dir != null)
+                return (prevCommand = new MoveCommand(getId(), detractMoney(1), dir));
+        }
+        if (!targetPlanned)
+            planPath();
+        return (prevCommand = new MoveCommand(getId(),
+                                              detractMoney(1),
+                                              computeDirection()));
     }
 
     /**
-     * Returns a command that is certain not to have any results.
+     * A step towards our target that needs no map of its own: down the
+     * field we chose the target from, or else to any square nearer as the
+     * crow flies that we can stand on. The way may be longer, but never
+     * into the water, nor onto another robot; of the steps there are, the
+     * least dangerous.
      *
-     * This should NEVER really be called, but if we really must, it's good
-     * to have it handy.
+     * @return the direction, or null if there's none to be had
      */
-    private Command issueIdleCommand() {
-        LinkedList<Integer> lst = new LinkedList<Integer>();
-        int bogus = 0;
-        while (packetDict.containsKey(bogus))
-            bogus++;
-        lst.add(bogus);
-        return new DropCommand(getId(), detractMoney(1), lst);
+    private Direction computeSafeDirection() {
+        int c = terrain.cell(getPosition());
+        int t = terrain.cell(target);
+        MultiSourceField field = null;
+        if (sourceField != null && sourceField.nearest(c) == t)
+            field = sourceField;
+        else if (destField != null && destField.nearest(c) == t)
+            field = destField;
+
+        int ty = target.getY(), tx = target.getX();
+        int gap = Math.abs(getPosition().getY() - ty) + Math.abs(getPosition().getX() - tx);
+        Direction best = null;
+        int bestDanger = 0;
+        for (Direction dir : Direction.values()) {
+            Position p = getPosition().move(dir);
+            if (!terrain.isPassable(p.getY(), p.getX()) || isOccupied(p))
+                continue;
+            int n = terrain.cell(p);
+            if (field != null) {
+                if (field.distance(n) != field.distance(c) - 1)
+                    continue;
+            } else if (Math.abs(p.getY() - ty) + Math.abs(p.getX() - tx) >= gap) {
+                continue;
+            }
+            int danger = dangerMap.get(p.getY(), p.getX());
+            if (best == null || danger < bestDanger) {
+                best = dir;
+                bestDanger = danger;
+            }
+        }
+        return best;
     }
 
-    //// Scanning code
-    //
-    // On the sad circumstances when it seems there is absolutely nothing
-    // more intelligent to do then wander around the world aimlessly, we 
-    // choose not to wander but rather scan the entire field for packages.
-    //
-    // We do so in a mostly straithforward way that is particularly suited
-    // to the kinds of worlds we tipically deal with -- rectangular and
-    // sparse. In such cases the robot visits a square only once _on
-    // average_. Also, we try to avoid recomputing the target often (a
-    // very expensive operation).
-
-    private void inverseScanningDirection() {
-        if (scanningDir == Direction.e)
-            scanningDir = Direction.w;
-        else
-            scanningDir = Direction.e;
+    /** Is some other robot standing at <code>p</code>? */
+    private boolean isOccupied(Position p) {
+        for (Robot r : robots)
+            if (r.getId() != getId() && r.getPosition().equals(p))
+                return true;
+        return false;
     }
 
     /**
-     * Find the rightmost position that is reachable from p by moving right
-     * (surprise) a number of squares, or, if no such location exists (i.e.
-     * p is just left to an uncrossable or lethal square) find the first
-     * crossable square. If that doesn't exist either, return null.
+     * If the command we just sent will likely have us choose a new target
+     * next turn, has the maps to the ones we may choose worked out
+     * meanwhile: where the packets there are headed, the nearest source
+     * and destination from there or, if there are none, where we'd look
+     * around next.
+     * <p>
+     * Until the server answers, what we're dropping or picking up there
+     * is still counted as a destination or source, so the fields would
+     * just lead back to the square itself. The nearest ones by Manhattan
+     * distance, leaving it out, make up for that.
+     * <p>
+     * The route planner, if we have one, learns the distances to another
+     * of the stops it doesn't know yet.
      */
-    private Position scanForward(Position p) {
-        int fx = -1;
-
-        for (int x = p.getX() + 1; x < field.getWidth(); ++x) {
-            if (sourceDists[p.getY()][x] == infinity)
-                break;
-            fx = x;
+    protected void commandSent(Command cmd) {
+        if (routePlanner != null)
+            routePlanner.learn(1, Deadline.NONE);
+        if (speculativePlanner == null)
+            return;
+
+        Position next = getPosition();
+        if (cmd instanceof MoveCommand)
+            next = next.move(((MoveCommand) cmd).getDirection());
+        int from = terrain.cell(next);
+        int fy = next.getY(), fx = next.getX();
+
+        // A target we had no time to plan for comes first
+        int n = 0;
+        if (target != null && !targetPlanned)
+            n = addLikelyTarget(terrain.cell(target), from, n);
+        if (target != null && !target.equals(next)) {
+            speculativePlanner.speculate(likelyTargets, n);
+            return;
         }
-        if (fx != -1)
-            return new Position(p.getY(), fx);
-
-        for (int x = p.getX() + 1; x < field.getWidth(); ++x)
-            if (sourceDists[p.getY()][x] != infinity) {
-                fx = x;
-                break;
-            }
-        if (fx != -1)
-            return new Position(p.getY(), fx);
-
-        return null;
-    }
-
-    private Position scanBackward(Position p) {
-        int fx = -1;
-
-        for (int x = p.getX() - 1; x >= 0; --x) {
-            if (sourceDists[p.getY()][x] == infinity)
-                break;
-            fx = x;
+        if (routePlanner != null)
+            n = addLikelyTarget(routePlanner.after(from), from, n);
+        if (clusterGraph == null) {
+            n = addLikelyTarget(sourceField.nearest(from), from, n);
+            n = addLikelyTarget(destField.nearest(from), from, n);
         }
-        if (fx != -1)
-            return new Position(p.getY(), fx);
+        for (Packet p : world.getPackets(from))
+            n = addLikelyTarget(terrain.cell(p.getDestination()), from, n);
 
-        for (int x = p.getX() - 1; x >= 0; --x)
-            if (sourceDists[p.getY()][x] != infinity) {
-                fx = x;
-                break;
+        int best = -1, bestCost = 0;
+        for (Packet p : packetLoad) {
+            int c = terrain.cell(p.getDestination());
+            int cost = Math.abs(terrain.getY(c) - fy) + Math.abs(terrain.getX(c) - fx);
+            if (c != from && (best < 0 || cost < bestCost)) {
+                best = c;
+                bestCost = cost;
             }
-        if (fx != -1)
-            return new Position(p.getY(), fx);
+        }
+        n = addLikelyTarget(best, from, n);
 
-        return null;
-    }
+        // Room left over goes to the sources around
+        int found = sourceList.nearest(from, nearSources.length, nearSources);
+        for (int i = 0; i < found; ++i)
+            n = addLikelyTarget(nearSources[i], from, n);
 
-    /**
-     * Finds the first (leftmost) crossable sqaure for row <tt>y</tt> or null
-     * if no such a square exists.
-     */
-    private Position findFirstScanColForward(int y) {
-        for (int x = 0; x < field.getWidth(); ++x)
-            if (sourceDists[y][x] != infinity)
-                return new Position(y, x);
-        return null;
-    }
+        // And in case there's nothing to pick up or deliver
+        if (n == 0)
+            n = addLikelyTarget(explorer.peek(from), from, n);
 
-    private Position findFirstScanColBackward(int y) {
-        for (int x = field.getWidth() - 1; x >= 0; --x)
-            if (sourceDists[y][x] != infinity)
-                return new Position(y, x);
-        return null;
+        speculativePlanner.speculate(likelyTargets, n);
     }
 
-    private Position findFirstScanCol(int y) {
-        if (scanningDir == Direction.e) {
-            Position pos = findFirstScanColForward(y);
-            if (pos != null)
-                return pos;
-        } else {
-            Position pos = findFirstScanColBackward(y);
-            if (pos != null)
-                return pos;
-        }
-        return null;
+    private int addLikelyTarget(int cell, int from, int n) {
+        if (n == likelyTargets.length || cell < 0 || cell == from ||
+            !terrain.isPassable(cell) || (atlas != null && atlas.contains(cell)))
+            return n;
+        for (int i = 0; i < n; ++i)
+            if (likelyTargets[i] == cell)
+                return n;
+        likelyTargets[n++] = cell;
+        return n;
     }
 
     /**
-     * Calculate where should our map scanning proceed. ALWAYS returns a
-     * valid location on the map.
+     * Returns a command that is certain not to have any results.
+     *
+     * This should NEVER really be called, but if we really must, it's good
+     * to have it handy.
      */
-    private Position findNextScanTarget(Position p) {
-        ensureDistsComputed();
-
-        if (scanningDir == Direction.e) {
-            Position pos = scanForward(p);
-            if (pos != null)
-                return pos;
-        } else {
-            Position pos = scanBackward(p);
-            if (pos != null)
-                return pos;
-        }
-
-        int y = p.getY() + 1;
-        while (true) {
-            if (y >= field.getHeight())
-                y = 0;
-            inverseScanningDirection();
-
-            Position next = findFirstScanCol(y);
-            if (next != null)
-                return next;
-            y += 1;
-        }
+    private Command issueIdleCommand() {
+        LinkedList<Integer> lst = new LinkedList<Integer>();
+        int bogus = 0;
+        while (packetDict.containsKey(bogus))
+            bogus++;
+        lst.add(bogus);
+        return new DropCommand(getId(), detractMoney(1), lst);
     }
 
     protected void parseField(List<String> rows, int width, int height)
         throws InvalidBoardException
     {
+        FlightEvents.BoardLoadEvent event = new FlightEvents.BoardLoadEvent();
+        event.begin();
+
         for (String row : rows)
             if (row.length() != width)
                 throw new InvalidBoardException("unexpected board width");
 
-        field = new Field(rows);
-
-        for (int y = 0; y < field.getHeight(); y++)
-            for (int x = 0; x < field.getWidth(); x++)
-                if (field.getType(new Position(y, x)) == Field.CellType.BASE)
-                    sourceList.add(new Position(y, x));
-
-        infinity = field.getWidth() * field.getHeight();
-
-        targetDists = new int[field.getHeight()][field.getWidth()];
-        sourceDists = new int[field.getHeight()][field.getWidth()];
+        world = new WorldModel(rows);
+        terrain = new Terrain(world);
+        if (!useClusterGraph) {
+            sourceField = new MultiSourceField(terrain);
+            destField = new MultiSourceField(terrain);
+        }
 
-        visitedMap = new boolean[field.getHeight()][field.getWidth()];
+        sourceList = new SourceSet(terrain, SOURCE_BUCKET_SIZE);
+        suspendedSources = new SuspendedSources(terrain.getSize());
+        for (int c = 0; c < terrain.getSize(); ++c)
+            if (world.getType(c) == Field.CellType.BASE)
+                addSource(c);
+        pathPlanner = speculateAhead(openAtlas(createPathPlanner()));
+        if (useRoutePlanner)
+            routePlanner = new RoutePlanner(terrain, createDistanceEngine(), atlas,
+                                            MAX_ROUTE_STOPS);
+        infinity = terrain.getInfinity();
+        dangerMap = new InfluenceMap(terrain, dangerRadius, dangerDecay);
+
+        targetDists = new int[terrain.getSize()];
+        if (useClusterGraph)
+            clusterGraph = new ClusterGraph(terrain, CLUSTER_SIZE);
+
+        explorer = new FrontierExplorer(terrain);
+
+        if (event.shouldCommit()) {
+            event.loader = "player";
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
     }
 
     private static void printUsageAndQuit(int exitStatus) {
@@ -842,6 +1390,17 @@ public class Player extends BasePlayer {
         out.println("usage: java it.unibo.cs.csrobots.Player [OPTION]...");
         out.println("\t-address\tthe server address [default=localhost]");
         out.println("\t-port\t\tserver port [default=7919]");
+        out.println("\t-engine\t\tbfs, bitboard or parallel [default=bfs]");
+        out.println("\t-threads\tthreads used by the parallel engine [default=#cpus]");
+        out.println("\t-planner\tgradient, astar, jps, jps+ or dynamic [default=astar]");
+        out.println("\t-hpa\t\tguess target distances with a hierarchical abstraction");
+        out.println("\t-danger-radius\thow far other robots are felt [default=2]");
+        out.println("\t-danger-decay\tflat, linear or halving [default=flat]");
+        out.println("\t-dist-cache-mb\tkeep up to N MB of the gradient planner's maps [default=0]");
+        out.println("\t-atlas-dir\twhere to look for distance atlases made by AtlasBuilder (gradient, route)");
+        out.println("\t-speculate\twork out likely next maps while waiting (gradient only)");
+        out.println("\t-route\t\tdeliver in the order of the shortest way, not nearest first");
+        out.println("\t-think-ms\tsettle for a safe command after N ms each turn [default=0, no limit]");
 
         System.exit(exitStatus);
     }
@@ -849,6 +1408,17 @@ public class Player extends BasePlayer {
     public static void main(String[] args) {
         String serverAddr = defaultServerAddr;
         int serverPort = DEFAULT_SERVER_PORT;
+        EngineType engineType = EngineType.BFS;
+        int engineThreads = Runtime.getRuntime().availableProcessors();
+        PlannerType plannerType = PlannerType.ASTAR;
+        boolean useClusterGraph = false;
+        int dangerRadius = 2;
+        InfluenceMap.Decay dangerDecay = InfluenceMap.Decay.FLAT;
+        int distanceCacheMb = 0;
+        File atlasDir = null;
+        boolean speculate = false;
+        int thinkMs = 0;
+        boolean useRoutePlanner = false;
 
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("-address")) {
@@ -865,6 +1435,89 @@ public class Player extends BasePlayer {
                 } catch (NumberFormatException e) {
                     printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
                 }
+            } else if (args[i].equals("-engine")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    engineType = EngineType.valueOf(args[++i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
+            } else if (args[i].equals("-threads")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    engineThreads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
+                if (engineThreads < 1)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+            } else if (args[i].equals("-hpa")) {
+                useClusterGraph = true;
+            } else if (args[i].equals("-planner")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    String name = args[++i].toUpperCase().replace("+", "_PLUS");
+                    plannerType = PlannerType.valueOf(name);
+                } catch (IllegalArgumentException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
+            } else if (args[i].equals("-danger-radius")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    dangerRadius = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
+                if (dangerRadius < 0 || dangerRadius > 30)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+            } else if (args[i].equals("-danger-decay")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    dangerDecay = InfluenceMap.Decay.valueOf(args[++i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
+            } else if (args[i].equals("-dist-cache-mb")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    distanceCacheMb = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
+                if (distanceCacheMb < 0)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+            } else if (args[i].equals("-atlas-dir")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                atlasDir = new File(args[++i]);
+            } else if (args[i].equals("-speculate")) {
+                speculate = true;
+            } else if (args[i].equals("-route")) {
+                useRoutePlanner = true;
+            } else if (args[i].equals("-think-ms")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    thinkMs = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
+                if (thinkMs < 0)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
             } else {
                 printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
             }
@@ -881,8 +1534,19 @@ public class Player extends BasePlayer {
             System.exit(EXIT_STATUS_FAILURE);
         }
 
+        player.setDistanceEngine(engineType, engineThreads);
+        player.setPathPlanner(plannerType);
+        player.setUseClusterGraph(useClusterGraph);
+        player.setDanger(dangerRadius, dangerDecay);
+        player.setDistanceCache((long) distanceCacheMb << 20);
+        player.setAtlasDir(atlasDir);
+        player.setSpeculate(speculate);
+        player.setThinkTime(thinkMs);
+        player.setUseRoutePlanner(useRoutePlanner);
+
         try {
             player.play();
+            player.printStatistics(System.err);
         } catch (Exception e) {
             System.err.printf("error: an unexpected exception occured [%s]\n", e.getMessage());
             System.err.printf("stack trace follows:\n");
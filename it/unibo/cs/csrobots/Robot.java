@@ -38,6 +38,8 @@ public class Robot extends GameObject {
 
     public int getCurrentLoad() { return currentLoad; }
 
+    public int getPacketCount() { return packetLoad.size(); }
+
     private LinkedHashMap<Integer, Packet> packetLoadMap;
     private LinkedList<Packet> packetLoad;
 
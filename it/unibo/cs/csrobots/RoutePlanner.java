@@ -0,0 +1,425 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.PrintStream;
+
+/**
+ * Chooses the order to deliver what we carry in: rather than always
+ * heading for the nearest destination, which with a dozen packets on our
+ * back has us zig-zag across the board, we look for a short way through
+ * all of them.
+ * <p>
+ * The distances between the stops take a map each, filled in once, when
+ * the stop first comes up, and kept as a small matrix from then on (the
+ * board is undirected, so one map gives both ways). Where we stand takes
+ * another, unless it's a stop, or the one we just made. The order starts
+ * out nearest first and is then improved by local search: 2-opt (turning
+ * a stretch of it around) and Or-opt (moving one, two or three stops in a
+ * row elsewhere), until neither helps or time runs out. Any order is a
+ * complete route, so stopping early only costs length.
+ * <p>
+ * However much time there is, a call only fills in a couple of maps: a
+ * dozen stops coming up at once would otherwise take a dozen maps in one
+ * go. Until all the stops are known, there's no route, and the caller
+ * goes nearest first; <code>learn</code> can fill in the rest meanwhile,
+ * when there's time to spare.
+ * <p>
+ * Only the first <code>maxStops</code> stops are routed; those past that
+ * wait their turn.
+ */
+public class RoutePlanner {
+    /** How many maps <code>next</code> fills in at most */
+    private static final int MAX_FILLS = 2;
+
+    private final Terrain terrain;
+    private final DistanceEngine engine;
+    private final DistanceAtlas atlas;
+    private final int maxStops;
+    private final int infinity;
+
+    /**
+     * The stops, how many packets are headed to each, and whether we have
+     * their distances to the others yet
+     */
+    private final int[] stops;
+    private final int[] counts;
+    private final boolean[] known;
+    private int n = 0;
+
+    /** The stops that didn't fit, as (cell, count) pairs, by cell */
+    private final IntMap<int[]> waiting = new IntMap<int[]>();
+
+    /** Between the stops, by slot, and from where we stand */
+    private final int[][] dist;
+    private final int[] fromOrigin;
+
+    /**
+     * From the last place we knew the distances from without it being a
+     * stop: the last origin, or the stop we last made. It's usually where
+     * we'll stand next time, and saves us a map.
+     */
+    private int lastCell = -1;
+    private final int[] lastRow;
+
+    /**
+     * The order we last came up with, by slot, and how many stops it
+     * takes in, and scratch for the search
+     */
+    private final int[] order;
+    private int lastLength = 0;
+    private final int[] scratch;
+
+    /** Scratch for the maps */
+    private int[] map = null;
+
+    /** How long a map may take, as in <code>Player</code> */
+    private long fillNanos = 0;
+
+    private long routes = 0, fills = 0, moves = 0, cutShort = 0, unready = 0;
+
+    /**
+     * @param engine fills in the maps we don't find in <code>atlas</code>
+     * @param atlas where to look for maps first, or null
+     */
+    public RoutePlanner(Terrain terrain, DistanceEngine engine, DistanceAtlas atlas,
+                        int maxStops) {
+        this.terrain = terrain;
+        this.engine = engine;
+        this.atlas = atlas;
+        this.maxStops = maxStops;
+        infinity = terrain.getInfinity();
+        stops = new int[maxStops];
+        counts = new int[maxStops];
+        known = new boolean[maxStops];
+        dist = new int[maxStops][maxStops];
+        fromOrigin = new int[maxStops];
+        lastRow = new int[maxStops];
+        order = new int[maxStops];
+        scratch = new int[maxStops];
+    }
+
+    private int slotOf(int cell) {
+        for (int i = 0; i < n; ++i)
+            if (stops[i] == cell)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Adds a stop; the same one can be added more than once, and must then
+     * be removed as many times.
+     */
+    public void add(int cell) {
+        int i = slotOf(cell);
+        if (i >= 0) {
+            ++counts[i];
+        } else if (n < maxStops) {
+            stops[n] = cell;
+            counts[n] = 1;
+            known[n] = false;
+            ++n;
+        } else {
+            int[] w = waiting.get(cell);
+            if (w == null)
+                waiting.put(cell, new int[] { cell, 1 });
+            else
+                ++w[1];
+        }
+    }
+
+    public void remove(int cell) {
+        int i = slotOf(cell);
+        if (i < 0) {
+            int[] w = waiting.get(cell);
+            if (w != null && --w[1] == 0)
+                waiting.remove(cell);
+            return;
+        }
+        if (--counts[i] > 0)
+            return;
+        if (known[i]) {
+            lastCell = cell;
+            System.arraycopy(dist[i], 0, lastRow, 0, n);
+        }
+
+        // The last slot takes its place, distances and all
+        --n;
+        if (i != n) {
+            lastRow[i] = lastRow[n];
+            stops[i] = stops[n];
+            counts[i] = counts[n];
+            known[i] = known[n];
+            for (int j = 0; j < n; ++j) {
+                dist[i][j] = dist[n][j];
+                dist[j][i] = dist[j][n];
+            }
+            dist[i][i] = 0;
+        }
+
+        // And someone who's been waiting takes the last
+        if (!waiting.isEmpty()) {
+            int[] w = waiting.iterator().next();
+            waiting.remove(w[0]);
+            stops[n] = w[0];
+            counts[n] = w[1];
+            known[n] = false;
+            ++n;
+        }
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Fills in the map from <code>cell</code> into <code>map</code>,
+     * unless we'd run past the deadline.
+     */
+    private boolean fill(int cell, Deadline deadline) {
+        if (map == null)
+            map = new int[terrain.getSize()];
+        if (atlas != null && atlas.get(cell, map))
+            return true;
+        if (!deadline.allows(fillNanos))
+            return false;
+
+        long start = System.nanoTime();
+        engine.computeDistances(map, cell);
+        fillNanos = Math.max(System.nanoTime() - start, fillNanos - fillNanos / 8);
+        ++fills;
+        return true;
+    }
+
+    /**
+     * Fills in the distances of the stops we don't know yet, up to
+     * <code>maps</code> maps' worth (those from the atlas are free).
+     *
+     * @return true if we know them all now
+     */
+    public boolean learn(int maps, Deadline deadline) {
+        long limit = fills + maps;
+        for (int i = 0; i < n; ++i) {
+            if (known[i])
+                continue;
+            if (fills == limit || !fill(stops[i], deadline))
+                return false;
+            for (int j = 0; j < n; ++j)
+                dist[i][j] = dist[j][i] = map[stops[j]];
+            if (lastCell >= 0)
+                lastRow[i] = map[lastCell];
+            known[i] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Works out a way from <code>origin</code> through all the stops.
+     *
+     * @return the first stop along it, or -1 if we don't know all the
+     *         distances yet, or none of the stops can be reached
+     */
+    public int next(int origin, Deadline deadline) {
+        lastLength = 0;
+        if (n == 0)
+            return -1;
+
+        long limit = fills + MAX_FILLS;
+        if (!learn(MAX_FILLS, deadline)) {
+            ++unready;
+            return -1;
+        }
+
+        int o = slotOf(origin);
+        if (o >= 0) {
+            System.arraycopy(dist[o], 0, fromOrigin, 0, n);
+        } else if (origin == lastCell) {
+            System.arraycopy(lastRow, 0, fromOrigin, 0, n);
+        } else {
+            if (fills == limit || !fill(origin, deadline)) {
+                ++unready;
+                return -1;
+            }
+            for (int i = 0; i < n; ++i)
+                fromOrigin[i] = map[stops[i]];
+            lastCell = origin;
+            System.arraycopy(fromOrigin, 0, lastRow, 0, n);
+        }
+
+        // Only what can be reached, and not where we stand
+        int m = 0;
+        for (int i = 0; i < n; ++i)
+            if (i != o && fromOrigin[i] < infinity)
+                order[m++] = i;
+        if (m == 0)
+            return -1;
+
+        ++routes;
+        nearestFirst(m);
+        improve(m, deadline);
+        lastLength = m;
+        return stops[order[0]];
+    }
+
+    /**
+     * @return the stop after <code>cell</code> along the last way we came
+     *         up with, the first if it's not on it, or -1 if there's none
+     */
+    public int after(int cell) {
+        for (int i = 0; i < lastLength; ++i)
+            if (stops[order[i]] == cell)
+                return (i + 1 < lastLength) ? stops[order[i + 1]] : -1;
+        return (lastLength > 0) ? stops[order[0]] : -1;
+    }
+
+    /** The length of the way through the first <code>m</code> in order */
+    private int length(int[] route, int m) {
+        int len = fromOrigin[route[0]];
+        for (int i = 1; i < m; ++i)
+            len += dist[route[i - 1]][route[i]];
+        return len;
+    }
+
+    private void nearestFirst(int m) {
+        for (int k = 0; k < m; ++k) {
+            int best = k;
+            for (int i = k + 1; i < m; ++i) {
+                int a = (k == 0) ? fromOrigin[order[i]] : dist[order[k - 1]][order[i]];
+                int b = (k == 0) ? fromOrigin[order[best]] : dist[order[k - 1]][order[best]];
+                if (a < b)
+                    best = i;
+            }
+            int t = order[k];
+            order[k] = order[best];
+            order[best] = t;
+        }
+    }
+
+    /** The distance between two positions along the way, -1 being the origin */
+    private int d(int i, int j) {
+        if (i < 0)
+            return fromOrigin[order[j]];
+        return dist[order[i]][order[j]];
+    }
+
+    /**
+     * Local search until neither kind of move helps, or the deadline is
+     * up. The way is open ended: there's nothing to come back to.
+     */
+    private void improve(int m, Deadline deadline) {
+        boolean better = true;
+        while (better) {
+            if (deadline.hasExpired()) {
+                ++cutShort;
+                return;
+            }
+            better = false;
+
+            // 2-opt: turn order[i..j] around
+            for (int i = 0; i < m - 1; ++i) {
+                for (int j = i + 1; j < m; ++j) {
+                    int before = d(i - 1, i) + ((j + 1 < m) ? d(j, j + 1) : 0);
+                    int after = d(i - 1, j) + ((j + 1 < m) ? d(i, j + 1) : 0);
+                    if (after < before) {
+                        for (int a = i, b = j; a < b; ++a, --b) {
+                            int t = order[a];
+                            order[a] = order[b];
+                            order[b] = t;
+                        }
+                        ++moves;
+                        better = true;
+                    }
+                }
+            }
+
+            // Or-opt: move order[i..i+len-1] elsewhere, either way round
+            for (int len = 1; len <= 3 && len < m; ++len) {
+                for (int i = 0; i + len <= m; ++i) {
+                    if (tryMove(i, len, m)) {
+                        ++moves;
+                        better = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tries every place to put the stretch of <code>len</code> stops at
+     * <code>i</code>, and moves it to the best if that's shorter.
+     */
+    private boolean tryMove(int i, int len, int m) {
+        int current = length(order, m);
+        int best = current, bestAt = -1;
+        boolean bestReversed = false;
+
+        for (int at = 0; at <= m - len; ++at) {
+            if (at == i)
+                continue;
+            for (int r = 0; r < 2; ++r) {
+                // What's left, with the stretch put back in at <code>at</code>
+                int k = 0;
+                for (int x = 0; x < m; ++x) {
+                    if (x >= i && x < i + len)
+                        continue;
+                    if (k == at)
+                        k = putStretch(i, len, r == 1, k);
+                    scratch[k++] = order[x];
+                }
+                if (k == at)
+                    k = putStretch(i, len, r == 1, k);
+
+                int l = length(scratch, m);
+                if (l < best) {
+                    best = l;
+                    bestAt = at;
+                    bestReversed = (r == 1);
+                }
+            }
+        }
+        if (bestAt < 0)
+            return false;
+
+        int k = 0;
+        for (int x = 0; x < m; ++x) {
+            if (x >= i && x < i + len)
+                continue;
+            if (k == bestAt)
+                k = putStretch(i, len, bestReversed, k);
+            scratch[k++] = order[x];
+        }
+        if (k == bestAt)
+            k = putStretch(i, len, bestReversed, k);
+        System.arraycopy(scratch, 0, order, 0, m);
+        return true;
+    }
+
+    private int putStretch(int i, int len, boolean reversed, int k) {
+        for (int s = 0; s < len; ++s)
+            scratch[k++] = order[reversed ? i + len - 1 - s : i + s];
+        return k;
+    }
+
+    public void printStatistics(PrintStream out) {
+        out.printf("route planner: %d routes, %d maps filled in, %d moves, %d cut short, "
+                   + "%d left to nearest first\n",
+                   routes, fills, moves, cutShort, unready);
+    }
+}
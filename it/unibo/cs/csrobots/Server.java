@@ -47,8 +47,16 @@ public class Server extends BaseServer implements CommandHandler {
     private String serverAddress;
     private Field field;
     private GameConfig config;
+    private AsyncLogger log;
+    private MetricsServer metricsServer = null;
 
-    public Server(int port, String host, String boardPath)
+    /** Packets that made it to their destination so far */
+    private int packetsDelivered = 0;
+
+    /** Packets that went down with the robot carrying them */
+    private int packetsLost = 0;
+
+    public Server(int port, String host, String boardPath, AsyncLogger log)
         throws IOException, InvalidBoardException, FileNotFoundException
     {
         clients = new LinkedHashMap<Integer, Client>();
@@ -56,6 +64,14 @@ public class Server extends BaseServer implements CommandHandler {
         serverAddress = host;
         config = new GameConfig(boardPath);
         field = config.getField();
+        this.log = log;
+    }
+
+    public Server(int port, String host, String boardPath)
+        throws IOException, InvalidBoardException, FileNotFoundException
+    {
+        this(port, host, boardPath,
+             new AsyncLogger(LogMessageLevel.INFO, AsyncLogger.Format.TEXT));
     }
 
     
@@ -179,9 +195,10 @@ public class Server extends BaseServer implements CommandHandler {
             Packet p;
             if ((p = robot.drop(packetId)) != null) {
                 updates.add(new DropUpdate(cmd.getPlayerId(), packetId));
-                if (p.getDestination().equals(robot.getPosition()))
+                if (p.getDestination().equals(robot.getPosition())) {
                     client.addScore(p.getWeight());
-                else {
+                    packetsDelivered++;
+                } else {
                     field.addPacket(robot.getPosition(), p);
                 }
             }
@@ -192,21 +209,20 @@ public class Server extends BaseServer implements CommandHandler {
     protected void logMessage(LogMessageLevel level,
                               String messageFormat, Object ... args)
     {
-        switch (level) {
-        case ERROR:
-            System.out.print("[ERROR]"); break;
-        case WARNING:
-            System.out.print("[WARNING]"); break;
-        case INFO:
-        case DEBUG:
-        default:
-            System.out.print("[INFO]"); break;
-        }
-        System.out.format(" " + messageFormat + "\n", args);
+        log.log(level, messageFormat, args);
+    }
+
+    protected boolean isLoggable(LogMessageLevel level) {
+        return log.isLoggable(level);
+    }
+
+    protected void flushLog() {
+        log.flush();
     }
 
     protected void handleFatalError() {
         logMessage(LogMessageLevel.INFO, "quitting due to irrecoverable error");
+        log.close();
         System.exit(EXIT_STATUS_FAILURE);
     }
 
@@ -232,12 +248,26 @@ public class Server extends BaseServer implements CommandHandler {
 
                 removeRobot(cmd.getPlayerId());
             } else {
-                logMessage(LogMessageLevel.INFO,
-                           "executing command from player %d [%s]", cmd.getPlayerId(), cmd);
+                if (isLoggable(LogMessageLevel.INFO))
+                    logMessage(LogMessageLevel.INFO,
+                               "executing command from player %d [%s]",
+                               cmd.getPlayerId(), cmd);
+
+                FlightEvents.CommandExecutedEvent event =
+                    new FlightEvents.CommandExecutedEvent();
+                event.begin();
 
                 // Invoke the right handler for the commnad
                 LinkedList<Update> up = cmd.invokeHandler(this);
 
+                if (event.shouldCommit()) {
+                    event.player = cmd.getPlayerId();
+                    event.bid = cmd.getBid();
+                    event.command = cmd.toString();
+                    event.updates = (up != null) ? up.size() : 0;
+                    event.commit();
+                }
+
                 if (up != null) {
                     if (updates != null)
                         updates.addAll(up);
@@ -254,9 +284,13 @@ public class Server extends BaseServer implements CommandHandler {
         return field;
     }
 
-    protected Packet[] getPacketListForPlayer(Client client) {
+    protected int getPacketsRemaining() {
+        return config.getPacketMap().size() - packetsDelivered - packetsLost;
+    }
+
+    protected String getPacketListForPlayer(Client client) {
         Position playerPos = client.getRobot().getPosition();
-        return field.getPackets(playerPos);
+        return field.getEncodedPackets(playerPos);
     }
 
     protected void handleTurnStart() {
@@ -265,22 +299,40 @@ public class Server extends BaseServer implements CommandHandler {
         }
     }
 
+    /**
+     * Serve metrics over HTTP on <code>port</code> (at the same address the
+     * game is served at) while the game is running.
+     */
+    public void setMetricsPort(int port) throws IOException {
+        metricsServer = new MetricsServer(this, serverAddress, port);
+        enableMetrics();
+    }
+
     public void start() {
         for (Robot r : config.getRobots())
             clients.put(r.getId(), new Client(r));
 
+        if (metricsServer != null)
+            metricsServer.start();
+
         try {
             acceptConnections(serverPort, serverAddress);
         } catch (StubException e) {
             logMessage(LogMessageLevel.ERROR, "could not start server [reason: %s]",
                        e.getMessage());
+            log.close();
             System.exit(EXIT_STATUS_FAILURE);
         }
 
         run();
+        if (metricsServer != null)
+            metricsServer.stop();
+        log.close();
     }
 
     private void removeRobot(int id) {
+        if (clients.get(id).isAlive())
+            packetsLost += clients.get(id).getRobot().getPacketCount();
         clients.get(id).setAlive(false);
         field.setRobot(clients.get(id).getRobot().getPosition(), null);
     }
@@ -296,6 +348,10 @@ public class Server extends BaseServer implements CommandHandler {
         out.println("\t-board\t\tname of the game map file [required]");
         out.println("\t-address\tthe address this server should listen at [default=localhost]");
         out.println("\t-port\t\tlisten port [default=7919]");
+        out.println("\t-log-level\terror, warning, info, debug or off [default=info]");
+        out.println("\t-log-file\twrite the log to a file [default=standard output]");
+        out.println("\t-log-format\ttext, json or binary [default=text]");
+        out.println("\t-metrics-port\tserve metrics over HTTP on this port [default=none]");
         out.println("\t-help\t\tprint this help message");
 
         System.exit(exitStatus);
@@ -305,6 +361,10 @@ public class Server extends BaseServer implements CommandHandler {
         String board = null;
         String listenAddr = defaultListenAddr;
         int listenPort = DEFAULT_LISTEN_PORT;
+        LogMessageLevel logLevel = LogMessageLevel.INFO;
+        String logFile = null;
+        AsyncLogger.Format logFormat = AsyncLogger.Format.TEXT;
+        int metricsPort = -1;
 
         for (int i = 0; i < args.length; ++i) {
             if (args[i].equals("-board")) {
@@ -326,6 +386,43 @@ public class Server extends BaseServer implements CommandHandler {
                 } catch (NumberFormatException e) {
                     printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
                 }
+            } else if (args[i].equals("-log-level")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                String level = args[++i].toUpperCase();
+                if (level.equals("OFF"))
+                    logLevel = null;
+                else {
+                    try {
+                        logLevel = LogMessageLevel.valueOf(level);
+                    } catch (IllegalArgumentException e) {
+                        printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                    }
+                }
+            } else if (args[i].equals("-log-file")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                logFile = args[++i];
+            } else if (args[i].equals("-log-format")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    logFormat = AsyncLogger.Format.valueOf(args[++i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
+            } else if (args[i].equals("-metrics-port")) {
+                if (i + 1 == args.length)
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+
+                try {
+                    metricsPort = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
+                }
             } else if (args[i].equals("-help")) {
                 printUsageAndQuit(EXIT_STATUS_SUCCESS);
             } else {
@@ -336,10 +433,23 @@ public class Server extends BaseServer implements CommandHandler {
         if (board == null)
             printUsageAndQuit(EXIT_STATUS_BAD_ARGS);
 
+        AsyncLogger log = null;
+        try {
+            if (logFile != null)
+                log = new AsyncLogger(logLevel, logFormat, logFile);
+            else
+                log = new AsyncLogger(logLevel, logFormat);
+        } catch (FileNotFoundException e) {
+            System.err.printf("error: cannot open log file `%s'\n", logFile);
+            System.exit(EXIT_STATUS_FAILURE);
+        }
+
         Server server = null;
 
         try {
-            server = new Server(listenPort, listenAddr, board);
+            server = new Server(listenPort, listenAddr, board, log);
+            if (metricsPort != -1)
+                server.setMetricsPort(metricsPort);
         } catch(FileNotFoundException e) {
             System.err.printf("error: board file not found: `%s'\n", board);
             System.exit(EXIT_STATUS_FAILURE);
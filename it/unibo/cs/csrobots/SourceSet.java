@@ -0,0 +1,248 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * A set of cells (the squares that may have packets on them, say) that can
+ * be searched by how far they are from a given cell.
+ * <p>
+ * Membership is a bitmap, so adding, removing and looking up a cell is
+ * O(1). On top of that the board is cut into square buckets, each with a
+ * doubly linked list of the cells in it, threaded through two arrays.
+ * Searches go through the buckets in rings around the origin, and stop as
+ * soon as the next ring can't hold anything closer than what was found.
+ */
+public class SourceSet {
+    /** What we're looking for the cheapest of; never less than the Manhattan distance */
+    public interface Cost {
+        int of(int cell);
+    }
+
+    private final Terrain terrain;
+    private final int width;
+    private final int bucketSize, bucketCols, bucketRows;
+
+    private final long[] members;
+    private int size = 0;
+
+    /** The first cell in each bucket, and the links between cells, or -1 */
+    private final int[] heads;
+    private final int[] next, prev;
+
+    /** Scratch for nearest: the distances of the cells found so far */
+    private int[] nearestDists = new int[8];
+
+    public SourceSet(Terrain terrain, int bucketSize) {
+        this.terrain = terrain;
+        this.width = terrain.getWidth();
+        this.bucketSize = bucketSize;
+        bucketCols = (terrain.getWidth() + bucketSize - 1) / bucketSize;
+        bucketRows = (terrain.getHeight() + bucketSize - 1) / bucketSize;
+
+        members = new long[(terrain.getSize() + 63) >>> 6];
+        heads = new int[bucketCols * bucketRows];
+        next = new int[terrain.getSize()];
+        prev = new int[terrain.getSize()];
+        Arrays.fill(heads, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int cell) {
+        return (members[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /** @return false if the cell was already there */
+    public boolean add(int cell) {
+        if (contains(cell))
+            return false;
+        members[cell >>> 6] |= 1L << cell;
+        ++size;
+
+        int b = bucketOf(cell);
+        prev[cell] = -1;
+        next[cell] = heads[b];
+        if (heads[b] >= 0)
+            prev[heads[b]] = cell;
+        heads[b] = cell;
+        return true;
+    }
+
+    /** @return false if the cell wasn't there */
+    public boolean remove(int cell) {
+        if (!contains(cell))
+            return false;
+        members[cell >>> 6] &= ~(1L << cell);
+        --size;
+
+        if (prev[cell] >= 0)
+            next[prev[cell]] = next[cell];
+        else
+            heads[bucketOf(cell)] = next[cell];
+        if (next[cell] >= 0)
+            prev[next[cell]] = prev[cell];
+        return true;
+    }
+
+    /** All the cells, bucket by bucket */
+    public int[] toArray() {
+        int[] cells = new int[size];
+        int n = 0;
+        for (int b = 0; b < heads.length; ++b)
+            for (int c = heads[b]; c >= 0; c = next[c])
+                cells[n++] = c;
+        return cells;
+    }
+
+    /**
+     * Finds the cheapest cell, the one with the smallest index on a tie.
+     * Only the buckets that may still hold something cheaper than the best
+     * so far are looked at, which is why <code>cost</code> must never be
+     * less than the Manhattan distance from <code>origin</code>.
+     *
+     * @return the cell, or -1 if the set is empty
+     */
+    public int closest(int origin, Cost cost) {
+        int best = -1, bestCost = Integer.MAX_VALUE;
+        int oy = terrain.getY(origin), ox = terrain.getX(origin);
+        int by = oy / bucketSize, bx = ox / bucketSize;
+        int rings = Math.max(bucketCols, bucketRows);
+        int left = size;
+
+        for (int r = 0; r < rings && left > 0 && lowerBound(r) <= bestCost; ++r) {
+            for (int b = firstInRing(by, bx, r); b >= 0; b = nextInRing(by, bx, r, b)) {
+                for (int c = heads[b]; c >= 0; c = next[c]) {
+                    --left;
+                    int k = cost.of(c);
+                    if (k < bestCost || (k == bestCost && c < best)) {
+                        best = c;
+                        bestCost = k;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the (at most) <code>k</code> cells nearest to
+     * <code>origin</code> by Manhattan distance, nearest first.
+     *
+     * @return how many were found
+     */
+    public int nearest(int origin, int k, int[] out) {
+        if (k <= 0)
+            return 0;
+        if (nearestDists.length < k)
+            nearestDists = new int[k];
+        int[] dist = nearestDists;
+        int n = 0;
+        int oy = terrain.getY(origin), ox = terrain.getX(origin);
+        int by = oy / bucketSize, bx = ox / bucketSize;
+        int rings = Math.max(bucketCols, bucketRows);
+
+        for (int r = 0; r < rings; ++r) {
+            if (n == k && lowerBound(r) > dist[n - 1])
+                break;
+            for (int b = firstInRing(by, bx, r); b >= 0; b = nextInRing(by, bx, r, b)) {
+                for (int c = heads[b]; c >= 0; c = next[c]) {
+                    int d = Math.abs(terrain.getY(c) - oy) + Math.abs(terrain.getX(c) - ox);
+                    if (n == k && d >= dist[n - 1])
+                        continue;
+                    // Insertion into the (short) sorted list
+                    int i = (n < k) ? n++ : n - 1;
+                    while (i > 0 && dist[i - 1] > d) {
+                        dist[i] = dist[i - 1];
+                        out[i] = out[i - 1];
+                        --i;
+                    }
+                    dist[i] = d;
+                    out[i] = c;
+                }
+            }
+        }
+        return n;
+    }
+
+    private int bucketOf(int cell) {
+        return ((cell / width) / bucketSize) * bucketCols + (cell % width) / bucketSize;
+    }
+
+    /**
+     * The least Manhattan distance between a cell and any cell in a bucket
+     * <code>r</code> buckets away from its own (in either direction).
+     */
+    private int lowerBound(int r) {
+        return (r == 0) ? 0 : (r - 1) * bucketSize + 1;
+    }
+
+    /**
+     * The buckets in ring <code>r</code> around bucket (<code>by</code>,
+     * <code>bx</code>) go row by row, and within each row left to right;
+     * only the first and last rows are full. These return -1 at the end.
+     */
+    private int firstInRing(int by, int bx, int r) {
+        for (int y = Math.max(by - r, 0); y <= by + r && y < bucketRows; ++y) {
+            int b = firstInRow(by, bx, r, y, -1);
+            if (b >= 0)
+                return b;
+        }
+        return -1;
+    }
+
+    private int nextInRing(int by, int bx, int r, int b) {
+        int y = b / bucketCols, x = b % bucketCols;
+        int n = firstInRow(by, bx, r, y, x);
+        if (n >= 0)
+            return n;
+        for (++y; y <= by + r && y < bucketRows; ++y) {
+            n = firstInRow(by, bx, r, y, -1);
+            if (n >= 0)
+                return n;
+        }
+        return -1;
+    }
+
+    /** The first bucket of the ring in row <code>y</code> right of <code>after</code> */
+    private int firstInRow(int by, int bx, int r, int y, int after) {
+        if (y < 0 || y >= bucketRows)
+            return -1;
+
+        if (y == by - r || y == by + r) {
+            int x = Math.max(after + 1, Math.max(bx - r, 0));
+            return (x <= Math.min(bx + r, bucketCols - 1)) ? y * bucketCols + x : -1;
+        }
+
+        // Just the two ends
+        if (after < bx - r && bx - r >= 0)
+            return y * bucketCols + bx - r;
+        if (after < bx + r && bx + r < bucketCols)
+            return y * bucketCols + bx + r;
+        return -1;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fills in the maps to the targets we're likely to want next on a thread
+ * of its own, while we'd otherwise just be waiting for the server.
+ * <p>
+ * Only meant for planners that fill in whole maps, which don't depend on
+ * where we stand: a map worked out in advance is then as good as a new
+ * one. Whoever gets hold of a map first owns it: the planner takes it out
+ * of its slot to use it, the thread takes it out to make room for another,
+ * each with a single <code>getAndSet</code>, so nothing is ever locked.
+ * Arrays the planner is done with go back to the thread through a
+ * lock-free queue.
+ */
+public class SpeculativePlanner implements PathPlanner {
+    /** A map, and who it leads to */
+    private static class Plan {
+        final int target;
+        final int[] distances;
+
+        Plan(int target, int[] distances) {
+            this.target = target;
+            this.distances = distances;
+        }
+    }
+
+    private final PathPlanner planner;
+    private final DistanceEngine engine;
+    private final int size;
+
+    /** The targets to work on next, as handed over by <code>speculate</code> */
+    private final AtomicReference<int[]> wanted = new AtomicReference<int[]>();
+
+    /** The maps ready for the taking, one per target asked for at most */
+    private final AtomicReferenceArray<Plan> ready;
+
+    /** Arrays nobody is using */
+    private final ConcurrentLinkedQueue<int[]> spare = new ConcurrentLinkedQueue<int[]>();
+
+    private final Thread worker;
+
+    private long hits = 0, misses = 0;
+    private volatile long filled = 0;
+
+    /**
+     * @param planner the planner to fall back on; must fill in whole maps
+     * @param engine fills in the maps on the thread; not to be shared
+     * @param slots how many targets may be asked for at once
+     */
+    public SpeculativePlanner(PathPlanner planner, DistanceEngine engine,
+                              Terrain terrain, int slots) {
+        this.planner = planner;
+        this.engine = engine;
+        size = terrain.getSize();
+        ready = new AtomicReferenceArray<Plan>(slots);
+
+        worker = new Thread(new Runnable()
+            {
+                public void run() {
+                    work();
+                }
+            }, "speculative-planner");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Asks for the maps to <code>targets</code>, and no others, to be got
+     * ready. Returns at once.
+     */
+    public void speculate(int[] targets, int n) {
+        int[] copy = new int[Math.min(n, ready.length())];
+        System.arraycopy(targets, 0, copy, 0, copy.length);
+        wanted.set(copy);
+        LockSupport.unpark(worker);
+    }
+
+    public int plan(int[] distances, int target, int origin) {
+        for (int i = 0; i < ready.length(); ++i) {
+            Plan p = ready.get(i);
+            if (p == null || p.target != target)
+                continue;
+            p = ready.getAndSet(i, null);
+            if (p == null || p.target != target) {
+                // The thread got there first (and we may have taken some
+                // other map in its place)
+                recycle(p);
+                continue;
+            }
+
+            System.arraycopy(p.distances, 0, distances, 0, size);
+            spare.offer(p.distances);
+            ++hits;
+            return 0;
+        }
+
+        ++misses;
+        return planner.plan(distances, target, origin);
+    }
+
+    public boolean isSettled(int cell) {
+        return true;
+    }
+
+    private void recycle(Plan p) {
+        if (p != null)
+            spare.offer(p.distances);
+    }
+
+    private void work() {
+        while (true) {
+            int[] targets = wanted.getAndSet(null);
+            if (targets == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            // Out with what's no longer wanted, making room for the rest
+            for (int i = 0; i < ready.length(); ++i) {
+                Plan p = ready.get(i);
+                if (p != null && indexOf(targets, p.target) < 0)
+                    recycle(ready.getAndSet(i, null));
+            }
+
+            for (int target : targets) {
+                if (wanted.get() != null)
+                    break;          // Changed our minds already
+                if (isReady(target))
+                    continue;
+                int slot = freeSlot();
+                if (slot < 0)
+                    break;
+
+                int[] distances = spare.poll();
+                if (distances == null)
+                    distances = new int[size];
+                engine.computeDistances(distances, target);
+                ++filled;
+                recycle(ready.getAndSet(slot, new Plan(target, distances)));
+            }
+        }
+    }
+
+    /**
+     * @return true if the map to <code>target</code> is ready for the
+     *         taking, so planning the way there won't take long
+     */
+    public boolean isReady(int target) {
+        for (int i = 0; i < ready.length(); ++i) {
+            Plan p = ready.get(i);
+            if (p != null && p.target == target)
+                return true;
+        }
+        return false;
+    }
+
+    private int freeSlot() {
+        for (int i = 0; i < ready.length(); ++i)
+            if (ready.get(i) == null)
+                return i;
+        return -1;
+    }
+
+    private static int indexOf(int[] a, int v) {
+        for (int i = 0; i < a.length; ++i)
+            if (a[i] == v)
+                return i;
+        return -1;
+    }
+
+    public void printStatistics(PrintStream out) {
+        out.printf("speculative planner: %d maps filled in ahead, %d used, %d misses\n",
+                   filled, hits, misses);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * The squares whose packets are all too heavy for us at the moment, in a
+ * min-heap keyed by the lightest packet on each.
+ * <p>
+ * When we regain some strength, only the squares at the top of the heap
+ * can have anything for us, so that's all we look at. Keys are only ever
+ * too light, never too heavy (packets get picked up behind our back, but
+ * the only ones added are those we see for ourselves, and then we re-key),
+ * so each square taken off the top is weighed again before being handed
+ * back. If it turns out to be too heavy after all, it goes back in with the
+ * right key.
+ */
+public class SuspendedSources {
+    /** Tells how heavy the lightest packet on a square is */
+    public interface Weigher {
+        /** @return the weight, or Integer.MAX_VALUE if there's nothing there */
+        int lightest(int cell);
+    }
+
+    /** The current key of each square, NONE if it's not suspended */
+    private static final int NONE = Integer.MAX_VALUE;
+    private final int[] keys;
+    private int size = 0;
+
+    /** (key, cell) entries; those whose key is out of date are skipped */
+    private final LongHeap heap = new LongHeap(16);
+
+    /**
+     * @param cells how many squares there are
+     */
+    public SuspendedSources(int cells) {
+        keys = new int[cells];
+        Arrays.fill(keys, NONE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int cell) {
+        return keys[cell] != NONE;
+    }
+
+    /**
+     * Puts a square aside, or updates its key if it already is.
+     *
+     * @param lightest the weight of the lightest packet on it
+     */
+    public void suspend(int cell, int lightest) {
+        if (lightest == Integer.MAX_VALUE) {
+            // Nothing will ever fit
+            remove(cell);
+            return;
+        }
+
+        int old = keys[cell];
+        keys[cell] = lightest;
+        if (old == NONE)
+            ++size;
+        if (old != lightest)
+            heap.push(LongHeap.entry(lightest, cell));
+    }
+
+    /** Re-keys a square, if it's suspended */
+    public void update(int cell, int lightest) {
+        if (keys[cell] != NONE)
+            suspend(cell, lightest);
+    }
+
+    private void remove(int cell) {
+        if (keys[cell] != NONE) {
+            keys[cell] = NONE;
+            --size;
+        }
+    }
+
+    /**
+     * Takes out the next square with a packet weighing at most
+     * <code>capacity</code>.
+     *
+     * @return the square, or -1 if none is left
+     */
+    public int poll(int capacity, Weigher weigher) {
+        while (!heap.isEmpty() && LongHeap.key(heap.peek()) <= capacity) {
+            long top = heap.pop();
+            int cell = LongHeap.cell(top);
+            if (keys[cell] != LongHeap.key(top))
+                continue;
+
+            int lightest = weigher.lightest(cell);
+            if (lightest <= capacity) {
+                remove(cell);
+                return cell;
+            }
+            suspend(cell, lightest);
+        }
+        return -1;
+    }
+}
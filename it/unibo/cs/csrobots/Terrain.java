@@ -0,0 +1,237 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+
+/**
+ * A flat, read-only view of the board terrain, for the path finding code.
+ * <p>
+ * Squares are identified by a single int, their <i>cell</i> index
+ * (<tt>y * width + x</tt>), and the passable ones (i.e. neither water nor
+ * walls) are kept in a bitmap. The terrain never changes during a game,
+ * so a <code>Terrain</code> can be freely shared (across threads, too).
+ * <p>
+ * For the same reason the connected components are labelled once and for
+ * all, so whether a cell can be reached from another is a matter of
+ * comparing two labels.
+ */
+public class Terrain {
+    private final int width;
+    private final int height;
+
+    /** One bit per cell, set if the cell can be walked on */
+    private final long[] passable;
+
+    /** The component of each cell, or -1 if it can't be walked on */
+    private final int[] components;
+
+    /** The number of cells in each component */
+    private final int[] componentSizes;
+
+    public Terrain(Field field) {
+        width = field.getWidth();
+        height = field.getHeight();
+        passable = new long[(width * height + 63) >>> 6];
+
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x) {
+                Field.CellType type = field.getType(y, x);
+                if (type != Field.CellType.WATER && type != Field.CellType.WALL) {
+                    int c = y * width + x;
+                    passable[c >>> 6] |= 1L << c;
+                }
+            }
+
+        components = new int[width * height];
+        componentSizes = labelComponents();
+    }
+
+    public Terrain(WorldModel world) {
+        this(world.getWidth(), world.getHeight(), world.getPassable());
+    }
+
+    /**
+     * Builds a terrain straight from a passability bitmap, as laid out
+     * above. Meant for synthetic boards.
+     */
+    Terrain(int width, int height, long[] passable) {
+        this.width = width;
+        this.height = height;
+        this.passable = passable;
+
+        components = new int[width * height];
+        componentSizes = labelComponents();
+    }
+
+    /**
+     * Fills in <code>components</code> with a union-find over a single
+     * sweep of the board: each cell is merged with the ones above and to
+     * its left, using <code>components</code> itself for the parent links.
+     * A second sweep then numbers the roots from zero.
+     *
+     * @return the size of each component
+     */
+    private int[] labelComponents() {
+        final int size = width * height;
+        final int[] parent = components;
+
+        for (int c = 0; c < size; ++c) {
+            if (!isPassable(c)) {
+                parent[c] = -1;
+                continue;
+            }
+            parent[c] = c;
+            if (c % width > 0 && isPassable(c - 1))
+                union(parent, c - 1, c);
+            if (c >= width && isPassable(c - width))
+                union(parent, c - width, c);
+        }
+
+        // Links always point back to a smaller cell, so by the time we
+        // get to a cell the one it links to already has its label.
+        int count = 0;
+        int[] sizes = new int[16];
+        for (int c = 0; c < size; ++c) {
+            if (parent[c] < 0)
+                continue;
+            int label;
+            if (parent[c] == c) {
+                if (count == sizes.length)
+                    sizes = Arrays.copyOf(sizes, 2 * count);
+                label = count++;
+            } else {
+                label = parent[parent[c]];
+            }
+            parent[c] = label;
+            ++sizes[label];
+        }
+
+        return Arrays.copyOf(sizes, count);
+    }
+
+    /** Finds the root of a cell's tree, halving the path as it goes */
+    private static int find(int[] parent, int c) {
+        while (parent[c] != c) {
+            parent[c] = parent[parent[c]];
+            c = parent[c];
+        }
+        return c;
+    }
+
+    /** Merges two trees, the larger root linking to the smaller */
+    private static void union(int[] parent, int a, int b) {
+        a = find(parent, a);
+        b = find(parent, b);
+        if (a < b)
+            parent[b] = a;
+        else if (b < a)
+            parent[a] = b;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** The number of cells on the board */
+    public int getSize() {
+        return width * height;
+    }
+
+    /**
+     * A distance no path can ever reach; in the various computations it
+     * stands for `unreachable'.
+     */
+    public int getInfinity() {
+        return width * height;
+    }
+
+    public int cell(int y, int x) {
+        return y * width + x;
+    }
+
+    public int cell(Position p) {
+        return p.getY() * width + p.getX();
+    }
+
+    public int getY(int cell) {
+        return cell / width;
+    }
+
+    public int getX(int cell) {
+        return cell % width;
+    }
+
+    public Position getPosition(int cell) {
+        return new Position(cell / width, cell % width);
+    }
+
+    public boolean isPassable(int cell) {
+        return (passable[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public boolean isPassable(int y, int x) {
+        return (x >= 0 && x < width && y >= 0 && y < height &&
+                isPassable(y * width + x));
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the size and passable cells, to tell whether
+     * something worked out for a terrain applies to another.
+     */
+    public long getHash() {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ width) * 0x100000001b3L;
+        h = (h ^ height) * 0x100000001b3L;
+        for (long word : passable)
+            for (int shift = 0; shift < 64; shift += 8)
+                h = (h ^ ((word >>> shift) & 0xff)) * 0x100000001b3L;
+        return h;
+    }
+
+    /**
+     * @return the label of the component the cell belongs to, from zero,
+     *         or -1 if the cell can't be walked on
+     */
+    public int getComponent(int cell) {
+        return components[cell];
+    }
+
+    /** The number of cells in a component */
+    public int getComponentSize(int component) {
+        return componentSizes[component];
+    }
+
+    public int getComponentCount() {
+        return componentSizes.length;
+    }
+
+    /**
+     * @return true if there's a way from <code>a</code> to <code>b</code>
+     *         (both of which must be passable)
+     */
+    public boolean isConnected(int a, int b) {
+        return components[a] >= 0 && components[a] == components[b];
+    }
+}
@@ -0,0 +1,108 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where does a server turn go? Keeps a latency histogram for each phase of
+ * the turn and one per player for its "think time", that is the time from
+ * sending it the packet list to reading its command.
+ * <p>
+ * Since commands are read one player at a time, a player's think time also
+ * includes the time spent waiting for the players before it in the queue
+ * (if they were slower).
+ */
+public class TurnStats {
+    /**
+     * The phases of a turn, in order of execution (plus the whole turn).
+     */
+    public enum Phase {
+        TURN_START,
+        WAIT_STEP,
+        SEND_PACKET_LIST,
+        RECV_COMMANDS,
+        HANDLE_COMMANDS,
+        SEND_UPDATES,
+        TURN
+    }
+
+    private EnumMap<Phase, LatencyHistogram> phases;
+    private LinkedHashMap<Integer, LatencyHistogram> thinkTimes;
+
+    public TurnStats() {
+        phases = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+        for (Phase p : Phase.values())
+            phases.put(p, new LatencyHistogram());
+        thinkTimes = new LinkedHashMap<Integer, LatencyHistogram>();
+    }
+
+    public void recordPhase(Phase phase, long nanos) {
+        phases.get(phase).record(nanos);
+    }
+
+    public void recordThinkTime(int playerId, long nanos) {
+        LatencyHistogram h = thinkTimes.get(playerId);
+        if (h == null) {
+            h = new LatencyHistogram();
+            thinkTimes.put(playerId, h);
+        }
+        h.record(nanos);
+    }
+
+    public LatencyHistogram getPhaseHistogram(Phase phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * @return the think time histogram of a player, or null if it never
+     * sent us a command
+     */
+    public LatencyHistogram getThinkTimeHistogram(int playerId) {
+        return thinkTimes.get(playerId);
+    }
+
+    public Map<Integer, LatencyHistogram> getThinkTimeHistograms() {
+        return thinkTimes;
+    }
+
+    private static void printRow(PrintStream out, String name, LatencyHistogram h) {
+        out.printf("\t%-18s%10d%10.3f%10.3f%10.3f\n", name, h.getCount(),
+                   h.getValueAtPercentile(50.0) / 1e6,
+                   h.getValueAtPercentile(99.0) / 1e6,
+                   h.getMax() / 1e6);
+    }
+
+    /**
+     * Prints a p50/p99/max summary (in milliseconds).
+     */
+    public void print(PrintStream out) {
+        out.println("******** Turn latency (ms) ********");
+        out.printf("\t%-18s%10s%10s%10s%10s\n", "Phase", "count", "p50", "p99", "max");
+        for (Phase p : Phase.values())
+            printRow(out, p.name().toLowerCase(), phases.get(p));
+
+        for (Map.Entry<Integer, LatencyHistogram> e : thinkTimes.entrySet())
+            printRow(out, "think #" + e.getKey(), e.getValue());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+marvin -- a CSRobots client and server
+Copyright (C) 2006 Carlo Cuoghi, Tomislav Jonjic
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unibo.cs.csrobots;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * What a player knows of the world, kept small enough for huge boards.
+ * <p>
+ * A <code>Field</code> holds a couple of objects and a hash map for every
+ * square, which the server needs but a player doesn't: it only ever sees
+ * the packets on the squares it stands on, and those are few. Here the
+ * terrain takes two bits a square, the squares we've stood on one, and the
+ * packets we've seen are kept by square in a map that only has the squares
+ * with something on them. Squares are cell numbers, as in
+ * <code>Terrain</code>.
+ */
+public class WorldModel {
+    private static final Field.CellType[] TYPES = Field.CellType.values();
+    private static final Packet[] NO_PACKETS = new Packet[0];
+
+    private static final Comparator<Packet> BY_ID = new Comparator<Packet>()
+        {
+            public int compare(Packet a, Packet b) {
+                return (a.getId() < b.getId()) ? -1 : (a.getId() > b.getId()) ? 1 : 0;
+            }
+        };
+
+    private final int width, height;
+
+    /**
+     * The type of each square, by ordinal, 32 squares to a long. Two bits
+     * a square only work as long as <code>Field.CellType</code> has no
+     * more than four values.
+     */
+    private final long[] types;
+
+    /** The squares we've stood on at least once */
+    private final long[] visited;
+
+    /** What we last saw on each square, sorted by id; never empty */
+    private final IntMap<Packet[]> packets = new IntMap<Packet[]>();
+
+    public WorldModel(List<String> rows) throws InvalidBoardException {
+        if (rows.isEmpty())
+            throw new InvalidBoardException("empty board");
+
+        height = rows.size();
+        width = rows.get(0).length();
+        types = new long[(width * height + 31) >>> 5];
+        visited = new long[(width * height + 63) >>> 6];
+
+        int y = 0;
+        for (String row : rows) {
+            if (row.length() != width)
+                throw new InvalidBoardException("unexpected board width");
+            for (int x = 0; x < width; ++x) {
+                Field.CellType type = Field.parseSymbol(row.charAt(x));
+                if (type == null) {
+                    String msg = String.format("invalid cell at (%d,%d)", y, x);
+                    throw new InvalidBoardException(msg);
+                }
+                int c = y * width + x;
+                types[c >>> 5] |= (long) type.ordinal() << ((c & 31) << 1);
+            }
+            ++y;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Field.CellType getType(int cell) {
+        return TYPES[(int) (types[cell >>> 5] >>> ((cell & 31) << 1)) & 3];
+    }
+
+    /**
+     * @return one bit per square, set if it can be walked on, as
+     *         <code>Terrain</code> wants it
+     */
+    public long[] getPassable() {
+        long[] passable = new long[(width * height + 63) >>> 6];
+        for (int c = 0; c < width * height; ++c) {
+            Field.CellType type = getType(c);
+            if (type != Field.CellType.WATER && type != Field.CellType.WALL)
+                passable[c >>> 6] |= 1L << c;
+        }
+        return passable;
+    }
+
+    public boolean isVisited(int cell) {
+        return (visited[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public void visit(int cell) {
+        visited[cell >>> 6] |= 1L << cell;
+    }
+
+    public boolean hasPackets(int cell) {
+        return packets.containsKey(cell);
+    }
+
+    /** @return the packets we know of on a square, possibly none */
+    public Packet[] getPackets(int cell) {
+        Packet[] here = packets.get(cell);
+        return (here != null) ? here : NO_PACKETS;
+    }
+
+    /**
+     * Replaces what we know of a square with what we see on it.
+     */
+    public void setPackets(int cell, List<Packet> seen) {
+        if (seen.isEmpty()) {
+            packets.remove(cell);
+            return;
+        }
+
+        Packet[] here = seen.toArray(new Packet[seen.size()]);
+        Arrays.sort(here, BY_ID);
+        packets.put(cell, here);
+    }
+
+    public void removePacket(int cell, int id) {
+        Packet[] here = packets.get(cell);
+        if (here == null)
+            return;
+
+        for (int i = 0; i < here.length; ++i) {
+            if (here[i].getId() != id)
+                continue;
+            if (here.length == 1) {
+                packets.remove(cell);
+            } else {
+                Packet[] rest = new Packet[here.length - 1];
+                System.arraycopy(here, 0, rest, 0, i);
+                System.arraycopy(here, i + 1, rest, i, rest.length - i);
+                packets.put(cell, rest);
+            }
+            return;
+        }
+    }
+}